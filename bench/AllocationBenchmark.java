@@ -0,0 +1,63 @@
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures how much a numeric loop allocates per iteration on one engine, the default tiered one unless another is
+ * named. Compile it together with the interpreter and run it:
+ * <pre>
+ *     javac -d out src/*.java bench/AllocationBenchmark.java
+ *     java -cp out AllocationBenchmark [engine]
+ * </pre>
+ * The loop runs twice at different lengths, and only the difference counts, so parsing, compiling and warming up
+ * don't.
+ */
+public class AllocationBenchmark {
+    private static final String SCRIPT = """
+            fun orbit(n) {
+              var x = 0;
+              var y = 0;
+              var t = 0;
+              var i = 0;
+              while (i < n) {
+                t = x * x - y * y - 0.5;
+                y = 2 * x * y + 0.25;
+                x = t;
+                i = i + 1;
+              }
+              return x;
+            }
+            print orbit(%d);
+            """;
+
+    private static final long SHORT_RUN = 1_000_000;
+    private static final long LONG_RUN = 11_000_000;
+
+    public static void main(String[] args) throws Exception {
+        String engine = args.length > 0 ? args[0] : "tiered";
+
+        // Once to get everything loaded and compiled.
+        run(engine, SHORT_RUN);
+        long shortRun = run(engine, SHORT_RUN);
+        long longRun = run(engine, LONG_RUN);
+
+        double perIteration = (double) (longRun - shortRun) / (LONG_RUN - SHORT_RUN);
+        System.out.printf("%s: %.2f bytes allocated per iteration%n", engine, perIteration);
+    }
+
+    private static long run(String engine, long iterations) throws Exception {
+        Path script = Files.createTempFile("orbit", ".lox");
+        try {
+            Files.writeString(script, SCRIPT.formatted(iterations));
+
+            ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long before = threads.getCurrentThreadAllocatedBytes();
+            Lox.main(new String[]{"--engine=" + engine, script.toString()});
+            return threads.getCurrentThreadAllocatedBytes() - before;
+        } finally {
+            Files.delete(script);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.List;
+
+/**
+ * Prints syntax trees as nested parenthesized forms, one statement per line, for --dump-ast.
+ */
+class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
+    private int indent = 0;
+
+    String print(List<Stmt> statements) {
+        StringBuilder builder = new StringBuilder();
+        for (Stmt statement : statements)
+            builder.append(statement.accept(this)).append("\n");
+        return builder.toString();
+    }
+
+    private String print(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private String parenthesize(String name, Expr... exprs) {
+        StringBuilder builder = new StringBuilder("(").append(name);
+        for (Expr expr : exprs)
+            builder.append(" ").append(print(expr));
+        return builder.append(")").toString();
+    }
+
+    /**
+     * Prints statements that belong to another one on their own lines, indented under it.
+     */
+    private String nested(String header, List<? extends Stmt> statements) {
+        StringBuilder builder = new StringBuilder("(").append(header);
+        indent++;
+        for (Stmt statement : statements)
+            builder.append("\n").append("  ".repeat(indent)).append(statement.accept(this));
+        indent--;
+        return builder.append(")").toString();
+    }
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+        return parenthesize("= " + expr.name.lexeme, expr.value);
+    }
+
+    @Override
+    public String visitBinaryExpr(Expr.Binary expr) {
+        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+        StringBuilder builder = new StringBuilder("(call ").append(print(expr.callee));
+        for (Expr argument : expr.arguments)
+            builder.append(" ").append(print(argument));
+        return builder.append(")").toString();
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+        return parenthesize(". " + expr.name.lexeme, expr.object);
+    }
+
+    @Override
+    public String visitGroupingExpr(Expr.Grouping expr) {
+        return parenthesize("group", expr.expression);
+    }
+
+    @Override
+    public String visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof String string)
+            return "\"" + string + "\"";
+        return Interpreter.stringify(expr.value);
+    }
+
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr) {
+        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    }
+
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+        return parenthesize("= " + expr.name.lexeme, expr.object, expr.value);
+    }
+
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+        return "super." + expr.method.lexeme;
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+        return "this";
+    }
+
+    @Override
+    public String visitUnaryExpr(Expr.Unary expr) {
+        return parenthesize(expr.operator.lexeme, expr.right);
+    }
+
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+        return expr.name.lexeme;
+    }
+
+    @Override
+    public String visitBlockStmt(Stmt.Block stmt) {
+        return nested("block", stmt.statements);
+    }
+
+    @Override
+    public String visitClassStmt(Stmt.Class stmt) {
+        String header = "class " + stmt.name.lexeme;
+        if (stmt.superclass != null)
+            header += " < " + stmt.superclass.name.lexeme;
+        return nested(header, stmt.methods);
+    }
+
+    @Override
+    public String visitExpressionStmt(Stmt.Expression stmt) {
+        return parenthesize(";", stmt.expression);
+    }
+
+    @Override
+    public String visitFunctionStmt(Stmt.Function stmt) {
+        StringBuilder header = new StringBuilder("fun ").append(stmt.name.lexeme).append(" (");
+        for (int i = 0; i < stmt.params.size(); i++) {
+            if (i > 0)
+                header.append(" ");
+            header.append(stmt.params.get(i).lexeme);
+        }
+        return nested(header.append(")").toString(), stmt.body);
+    }
+
+    @Override
+    public String visitIfStmt(Stmt.If stmt) {
+        if (stmt.elseBranch == null)
+            return nested("if " + print(stmt.condition), List.of(stmt.thenBranch));
+        return nested("if-else " + print(stmt.condition), List.of(stmt.thenBranch, stmt.elseBranch));
+    }
+
+    @Override
+    public String visitPrintStmt(Stmt.Print stmt) {
+        return parenthesize("print", stmt.expression);
+    }
+
+    @Override
+    public String visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null)
+            return "(return)";
+        return parenthesize("return", stmt.value);
+    }
+
+    @Override
+    public String visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null)
+            return "(var " + stmt.name.lexeme + ")";
+        return parenthesize("var " + stmt.name.lexeme, stmt.initializer);
+    }
+
+    @Override
+    public String visitWhileStmt(Stmt.While stmt) {
+        return nested("while " + print(stmt.condition), List.of(stmt.body));
+    }
+}
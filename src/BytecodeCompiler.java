@@ -0,0 +1,622 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles resolved statements into bytecode for the VM. The VM keeps locals in stack slots and reaches captured ones
+ * through upvalues, so this works out its own slots instead of using the Resolver's Environment ones.
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        INITIALIZER
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        /**
+         * Whether a closure captures this local, so it has to be moved off the stack when its scope ends.
+         */
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        /**
+         * Whether index is a local slot of the enclosing function, rather than one of its upvalues.
+         */
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    /**
+     * Everything about the function currently being compiled. Function declarations nest, so this is a stack.
+     */
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VM.Function function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        /**
+         * How many stack slots are in use at this point in the code.
+         */
+        int stackDepth = 0;
+
+        FunctionState(FunctionState enclosing, VM.Function function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            // Slot zero holds the function being called, or the receiver in methods.
+            if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER)
+                locals.add(new Local("this", 0));
+            else
+                locals.add(new Local("", 0));
+        }
+    }
+
+    private static final int MAX_OPERAND = 0xffff;
+
+    private FunctionState current = null;
+    /**
+     * Source line of the instructions being emitted. Only some nodes have tokens, so it's updated whenever one does.
+     */
+    private int line = 1;
+
+    VM.Function compile(List<Stmt> statements) {
+        startFunction(new VM.Function(null, 0), FunctionType.SCRIPT);
+
+        for (Stmt statement : statements)
+            compile(statement);
+
+        return endFunction();
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void startFunction(VM.Function function, FunctionType type) {
+        current = new FunctionState(current, function, type);
+        adjustStack(1);
+    }
+
+    private VM.Function endFunction() {
+        emitReturn();
+
+        VM.Function function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.finish();
+
+        current = current.enclosing;
+        return function;
+    }
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private void adjustStack(int effect) {
+        current.stackDepth += effect;
+        if (current.stackDepth > chunk().maxStack)
+            chunk().maxStack = current.stackDepth;
+    }
+
+    private void emit(byte op, int stackEffect) {
+        chunk().write(op, line);
+        adjustStack(stackEffect);
+    }
+
+    private void emitByte(int value) {
+        chunk().write((byte) value, line);
+    }
+
+    private void emitShort(int value) {
+        emitByte(value >> 8);
+        emitByte(value);
+    }
+
+    private void emit(byte op, int operand, int stackEffect) {
+        emit(op, stackEffect);
+        emitShort(operand);
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER)
+            emit(OpCode.GET_LOCAL, 0, 1);
+        else
+            emit(OpCode.NIL, 1);
+
+        emit(OpCode.RETURN, -1);
+    }
+
+    private int makeConstant(Object value) {
+        int constant = chunk().addConstant(value);
+        if (constant > MAX_OPERAND) {
+            Lox.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return constant;
+    }
+
+    private int identifierConstant(Token name) {
+        return makeConstant(name.lexeme);
+    }
+
+    /**
+     * Emits a jump with a placeholder offset and returns where the offset goes, for patchJump to fill in.
+     */
+    private int emitJump(byte op) {
+        emit(op, 0);
+        emitShort(MAX_OPERAND);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset) {
+        // -2 for the offset operand itself
+        int jump = chunk().count - offset - 2;
+        if (jump > MAX_OPERAND)
+            Lox.error(line, "Too much code to jump over.");
+
+        chunk().code[offset] = (byte) (jump >> 8);
+        chunk().code[offset + 1] = (byte) jump;
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP, 0);
+
+        // +2 for the offset operand itself
+        int offset = chunk().count - loopStart + 2;
+        if (offset > MAX_OPERAND)
+            Lox.error(line, "Loop body too large.");
+
+        emitShort(offset);
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured)
+                emit(OpCode.CLOSE_UPVALUE, -1);
+            else
+                emit(OpCode.POP, -1);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    /**
+     * Adds a local for a variable in the current scope. Globals aren't declared, they're defined by name.
+     */
+    private void declareVariable(String name) {
+        if (current.scopeDepth == 0)
+            return;
+
+        if (current.locals.size() > MAX_OPERAND) {
+            Lox.error(line, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    /**
+     * Finishes a declaration whose value is on top of the stack. A local's value is already in its slot.
+     */
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0)
+            return;
+
+        emit(OpCode.DEFINE_GLOBAL, identifierConstant(name), -1);
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    private static int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null)
+            return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1)
+            return addUpvalue(state, upvalue, false);
+
+        return -1;
+    }
+
+    private static int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal)
+                return i;
+        }
+
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private void getVariable(String name) {
+        int slot = resolveLocal(current, name);
+        if (slot != -1) {
+            emit(OpCode.GET_LOCAL, slot, 1);
+            return;
+        }
+
+        int upvalue = resolveUpvalue(current, name);
+        if (upvalue != -1) {
+            emit(OpCode.GET_UPVALUE, upvalue, 1);
+            return;
+        }
+
+        emit(OpCode.GET_GLOBAL, makeConstant(name), 1);
+    }
+
+    private void setVariable(String name) {
+        int slot = resolveLocal(current, name);
+        if (slot != -1) {
+            emit(OpCode.SET_LOCAL, slot, 0);
+            return;
+        }
+
+        int upvalue = resolveUpvalue(current, name);
+        if (upvalue != -1) {
+            emit(OpCode.SET_UPVALUE, upvalue, 0);
+            return;
+        }
+
+        emit(OpCode.SET_GLOBAL, makeConstant(name), 0);
+    }
+
+    /**
+     * Compiles the function's body into its own chunk, then emits the code that makes a closure of it.
+     */
+    private void function(Stmt.Function declaration, FunctionType type) {
+        startFunction(new VM.Function(declaration.name.lexeme, declaration.params.size()), type);
+        beginScope();
+
+        for (Token param : declaration.params) {
+            declareVariable(param.lexeme);
+            adjustStack(1);
+        }
+
+        for (Stmt statement : declaration.body)
+            compile(statement);
+
+        List<Upvalue> upvalues = current.upvalues;
+        VM.Function function = endFunction();
+
+        line = declaration.name.line;
+        emit(OpCode.CLOSURE, makeConstant(function), 1);
+        for (Upvalue upvalue : upvalues) {
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitShort(upvalue.index);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        setVariable(expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS -> emit(OpCode.SUBTRACT, -1);
+            case PLUS -> emit(OpCode.ADD, -1);
+            case STAR -> emit(OpCode.MULTIPLY, -1);
+            case SLASH -> emit(OpCode.DIVIDE, -1);
+            case GREATER -> emit(OpCode.GREATER, -1);
+            case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL, -1);
+            case LESS -> emit(OpCode.LESS, -1);
+            case LESS_EQUAL -> emit(OpCode.LESS_EQUAL, -1);
+            case EQUAL_EQUAL -> emit(OpCode.EQUAL, -1);
+            case BANG_EQUAL -> emit(OpCode.NOT_EQUAL, -1);
+            default -> throw new IllegalArgumentException("Not a binary operator: " + expr.operator.type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int argCount = expr.arguments.size();
+
+        if (expr.callee instanceof Expr.Get get) {
+            compile(get.object);
+            for (Expr argument : expr.arguments)
+                compile(argument);
+
+            line = expr.paren.line;
+            emit(OpCode.INVOKE, identifierConstant(get.name), -argCount);
+            emitByte(argCount);
+            return null;
+        }
+
+        if (expr.callee instanceof Expr.Super superExpr) {
+            getVariable("this");
+            for (Expr argument : expr.arguments)
+                compile(argument);
+            getVariable("super");
+
+            line = expr.paren.line;
+            emit(OpCode.SUPER_INVOKE, identifierConstant(superExpr.method), -argCount - 1);
+            emitByte(argCount);
+            return null;
+        }
+
+        compile(expr.callee);
+        for (Expr argument : expr.arguments)
+            compile(argument);
+
+        line = expr.paren.line;
+        emit(OpCode.CALL, -argCount);
+        emitByte(argCount);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emit(OpCode.GET_PROPERTY, identifierConstant(expr.name), 0);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null)
+            emit(OpCode.NIL, 1);
+        else if (expr.value.equals(true))
+            emit(OpCode.TRUE, 1);
+        else if (expr.value.equals(false))
+            emit(OpCode.FALSE, 1);
+        else
+            emit(OpCode.CONSTANT, makeConstant(expr.value), 1);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+
+            patchJump(elseJump);
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emit(OpCode.SET_PROPERTY, identifierConstant(expr.name), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        getVariable("this");
+        getVariable("super");
+        line = expr.method.line;
+        emit(OpCode.GET_SUPER, identifierConstant(expr.method), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        getVariable("this");
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        line = expr.operator.line;
+        if (expr.operator.type == TokenType.MINUS)
+            emit(OpCode.NEGATE, 0);
+        else
+            emit(OpCode.NOT, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        getVariable(expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements)
+            compile(statement);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        int nameConstant = identifierConstant(stmt.name);
+        declareVariable(stmt.name.lexeme);
+
+        emit(OpCode.CLASS, nameConstant, 1);
+        defineVariable(stmt.name);
+
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+
+            beginScope();
+            declareVariable("super");
+
+            getVariable(stmt.name.lexeme);
+            line = stmt.superclass.name.line;
+            emit(OpCode.INHERIT, -1);
+        }
+
+        getVariable(stmt.name.lexeme);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = FunctionType.METHOD;
+            if (method.name.lexeme.equals("init"))
+                type = FunctionType.INITIALIZER;
+
+            function(method, type);
+            emit(OpCode.METHOD, identifierConstant(method.name), -1);
+        }
+        emit(OpCode.POP, -1);
+
+        if (stmt.superclass != null)
+            endScope();
+
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // Declared before the body is compiled, so the function can call itself.
+        declareVariable(stmt.name.lexeme);
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+
+        // The condition is still on the stack when the jump is taken.
+        adjustStack(1);
+        emit(OpCode.POP, -1);
+
+        if (stmt.elseBranch != null)
+            compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+
+        if (stmt.value == null) {
+            emitReturn();
+            return null;
+        }
+
+        compile(stmt.value);
+        emit(OpCode.RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        declareVariable(stmt.name.lexeme);
+
+        if (stmt.initializer != null)
+            compile(stmt.initializer);
+        else
+            emit(OpCode.NIL, 1);
+
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+
+        // The condition is still on the stack when the loop exits.
+        adjustStack(1);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+}
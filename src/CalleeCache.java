@@ -0,0 +1,30 @@
+/**
+ * Remembers the last thing one call in the source called. Whether a callee is callable with the number of arguments
+ * the call passes never changes, so a call that keeps calling the same function only checks it the first time.
+ */
+final class CalleeCache {
+    /**
+     * Stands in for a callee before there's been one, since null is a value, nil, that can't be called.
+     */
+    private static final Object NOTHING = new Object();
+
+    private Object checked = NOTHING;
+
+    /**
+     * Checks the callee can take the arguments, reporting errors at the call's closing parenthesis.
+     */
+    LoxCallable check(Object callee, Token paren, int argumentCount) {
+        if (callee == checked)
+            return (LoxCallable) callee;
+
+        if (!(callee instanceof LoxCallable function))
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+
+        if (argumentCount != function.arity())
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments, " +
+                    "but got " + argumentCount + ".");
+
+        checked = callee;
+        return function;
+    }
+}
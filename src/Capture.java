@@ -0,0 +1,20 @@
+/**
+ * Where a closure gets one of the variables it captures from when it's created. The Resolver works these out for
+ * every function, and the closure keeps what they point to instead of the scopes it was created in.
+ */
+final class Capture {
+    /**
+     * How many scopes out from where the closure is created the variable is, or -1 if it's one the function creating
+     * the closure captured itself.
+     */
+    final int depth;
+    /**
+     * The variable's slot in that scope, or its index among the creating function's captured variables.
+     */
+    final int index;
+
+    Capture(int depth, int index) {
+        this.depth = depth;
+        this.index = index;
+    }
+}
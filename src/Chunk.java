@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bytecode for one function, its constant pool and the source line of every instruction.
+ */
+class Chunk {
+    byte[] code = new byte[32];
+    int count = 0;
+    Object[] constants;
+    /**
+     * The most stack slots the function can use at once, including its locals.
+     */
+    int maxStack;
+
+    private List<Object> constantList = new ArrayList<>();
+    private Map<Object, Integer> constantIndices = new HashMap<>();
+
+    /**
+     * Lines are run-length encoded: lineNumbers[i] applies from code offset lineStarts[i] up to the next start.
+     */
+    private int[] lineStarts = new int[8];
+    private int[] lineNumbers = new int[8];
+    private int lineRuns = 0;
+
+    void write(byte value, int line) {
+        if (count == code.length)
+            code = Arrays.copyOf(code, count * 2);
+        code[count++] = value;
+
+        if (lineRuns > 0 && lineNumbers[lineRuns - 1] == line)
+            return;
+
+        if (lineRuns == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineRuns * 2);
+            lineNumbers = Arrays.copyOf(lineNumbers, lineRuns * 2);
+        }
+        lineStarts[lineRuns] = count - 1;
+        lineNumbers[lineRuns] = line;
+        lineRuns++;
+    }
+
+    /**
+     * Returns the index of the value in the constant pool, adding it if an equal value isn't already there.
+     */
+    int addConstant(Object value) {
+        // Functions are only equal to themselves, so there's nothing to share.
+        if (value instanceof VM.Function) {
+            constantList.add(value);
+            return constantList.size() - 1;
+        }
+
+        Integer index = constantIndices.get(value);
+        if (index != null)
+            return index;
+
+        constantList.add(value);
+        constantIndices.put(value, constantList.size() - 1);
+        return constantList.size() - 1;
+    }
+
+    int getLine(int offset) {
+        int low = 0, high = lineRuns - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineStarts[mid] <= offset)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return lineNumbers[low];
+    }
+
+    /**
+     * Trims the buffers down to size once the compiler is done with them.
+     */
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        constants = constantList.toArray();
+        lineStarts = Arrays.copyOf(lineStarts, lineRuns);
+        lineNumbers = Arrays.copyOf(lineNumbers, lineRuns);
+        constantList = null;
+        constantIndices = null;
+    }
+}
@@ -0,0 +1,730 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Just enough of a class file writer for the JvmCompiler: one final class made of static methods, with a constant
+ * pool, invokedynamic bootstrap methods and stack map frames.
+ * <p>
+ * Code keeps track of the types on the operand stack as instructions are added, which is all it takes to write the
+ * frames for the structured control flow a compiler from an AST produces.
+ */
+class ClassFileWriter {
+    /**
+     * Thrown when a method outgrows what a class file (or a 16-bit branch offset) can hold.
+     */
+    static class TooLarge extends RuntimeException {
+        TooLarge(String message) {
+            super(message);
+        }
+    }
+
+    static final int REF_INVOKE_STATIC = 6;
+
+    private static final int VERSION = 65;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndices = new HashMap<>();
+    private int poolCount = 1;
+
+    private final List<int[]> bootstrapMethods = new ArrayList<>();
+    private final Map<String, Integer> bootstrapIndices = new HashMap<>();
+
+    private final List<Code> methods = new ArrayList<>();
+    private final int thisClass;
+    private final int superClass;
+
+    ClassFileWriter(String name) {
+        thisClass = classRef(name);
+        superClass = classRef("java/lang/Object");
+    }
+
+    /**
+     * Starts a new static method.
+     */
+    Code method(String name, String descriptor) {
+        Code code = new Code(name, descriptor);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        try {
+            // Methods and attributes add names and stack map classes to the pool, so they go first.
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+
+            int codeName = utf8("Code");
+            int stackMapName = utf8("StackMapTable");
+            out.writeShort(methods.size());
+            for (Code method : methods)
+                method.writeTo(out, codeName, stackMapName);
+
+            if (bootstrapMethods.isEmpty()) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(utf8("BootstrapMethods"));
+                int length = 2;
+                for (int[] method : bootstrapMethods)
+                    length += 2 * method.length + 2;
+                out.writeInt(length);
+                out.writeShort(bootstrapMethods.size());
+                for (int[] method : bootstrapMethods) {
+                    out.writeShort(method[0]);
+                    out.writeShort(method.length - 1);
+                    for (int i = 1; i < method.length; i++)
+                        out.writeShort(method[i]);
+                }
+            }
+
+            checkPoolSize();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(0xCAFEBABE);
+            header.writeShort(0);
+            header.writeShort(VERSION);
+            header.writeShort(poolCount);
+            poolBytes.writeTo(header);
+            body.writeTo(header);
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void checkPoolSize() {
+        if (poolCount > 0xFFFF)
+            throw new TooLarge("Too many constants in one class.");
+    }
+
+    // Constant pool entries are shared, keyed by their tag and contents.
+
+    private int constant(String key, int size, PoolWriter writer) {
+        Integer index = poolIndices.get(key);
+        if (index != null)
+            return index;
+
+        try {
+            writer.write(pool);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        index = poolCount;
+        poolCount += size;
+        poolIndices.put(key, index);
+        return index;
+    }
+
+    private interface PoolWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    int utf8(String value) {
+        return constant("Utf8:" + value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int integer(int value) {
+        return constant("Integer:" + value, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    int doubleConstant(double value) {
+        // Keyed by the bits, so that 0.0 and -0.0 stay apart.
+        return constant("Double:" + Double.doubleToRawLongBits(value), 2, out -> {
+            out.writeByte(6);
+            out.writeDouble(value);
+        });
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("Class:" + internalName, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(name);
+        });
+    }
+
+    int string(String value) {
+        int utf8 = utf8(value);
+        return constant("String:" + value, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(utf8);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return constant("NameAndType:" + name + ":" + descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return constant(tag + ":" + owner + "." + name + ":" + descriptor, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    /**
+     * A method handle for a static method.
+     */
+    int staticHandle(String owner, String name, String descriptor) {
+        int method = methodRef(owner, name, descriptor);
+        return constant("MethodHandle:" + method, 1, out -> {
+            out.writeByte(15);
+            out.writeByte(REF_INVOKE_STATIC);
+            out.writeShort(method);
+        });
+    }
+
+    /**
+     * Registers a bootstrap method with its static arguments, which are constant pool indices.
+     */
+    int bootstrapMethod(int handle, int... arguments) {
+        int[] method = new int[arguments.length + 1];
+        method[0] = handle;
+        System.arraycopy(arguments, 0, method, 1, arguments.length);
+
+        String key = Arrays.toString(method);
+        Integer index = bootstrapIndices.get(key);
+        if (index != null)
+            return index;
+
+        bootstrapMethods.add(method);
+        bootstrapIndices.put(key, bootstrapMethods.size() - 1);
+        return bootstrapMethods.size() - 1;
+    }
+
+    int invokeDynamic(int bootstrapMethod, String name, String descriptor) {
+        int nameAndType = nameAndType(name, descriptor);
+        return constant("InvokeDynamic:" + bootstrapMethod + ":" + name + ":" + descriptor, 1, out -> {
+            out.writeByte(18);
+            out.writeShort(bootstrapMethod);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    /**
+     * A position in a method's code that branches can target before it's known.
+     */
+    static class Label {
+        private int position = -1;
+        private final List<int[]> fixups = new ArrayList<>();
+    }
+
+    /**
+     * The body of one method. Every instruction method updates the tracked operand stack, whose entries are "I" for
+     * ints, "D" for doubles and internal class names for references.
+     */
+    class Code {
+        private final String name;
+        private final String descriptor;
+
+        private byte[] code = new byte[64];
+        private int length = 0;
+
+        private final List<String> stack = new ArrayList<>();
+        private int stackSlots = 0;
+        private int maxStack = 0;
+        private final List<String> locals = new ArrayList<>();
+        private int maxLocals = 0;
+
+        /**
+         * False right after a goto or return, until a label is bound.
+         */
+        private boolean reachable = true;
+        private final TreeMap<Integer, Frame> frames = new TreeMap<>();
+
+        private Code(String name, String descriptor) {
+            this.name = name;
+            this.descriptor = descriptor;
+
+            for (String parameter : parameterTypes(descriptor))
+                locals.add(parameter);
+            maxLocals = locals.size();
+        }
+
+        private record Frame(String[] locals, String[] stack) {
+        }
+
+        void aconstNull() {
+            op(0x01);
+            push("java/lang/Object");
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(0x11);
+                u2(value);
+            } else {
+                op(0x13);
+                u2(integer(value));
+            }
+            push("I");
+        }
+
+        void ldcString(String value) {
+            op(0x13);
+            u2(string(value));
+            push("java/lang/String");
+        }
+
+        void ldcDouble(double value) {
+            op(0x14);
+            u2(doubleConstant(value));
+            push("D");
+        }
+
+        /**
+         * Loads a reference from a local. The local has to have been stored (or be a parameter) first.
+         */
+        void aload(int local) {
+            checkLocal(local);
+            op(0x19);
+            u1(local);
+            push(locals.get(local));
+        }
+
+        void astore(int local) {
+            checkLocal(local);
+            op(0x3A);
+            u1(local);
+            String type = pop();
+            while (locals.size() <= local)
+                locals.add("top");
+            locals.set(local, type);
+            maxLocals = Math.max(maxLocals, local + 1);
+        }
+
+        private void checkLocal(int local) {
+            if (local > 0xFF)
+                throw new TooLarge("Too many locals in " + name + ".");
+        }
+
+        /**
+         * Forgets the locals from this one up, once the scope that stored them has ended.
+         */
+        void dropLocals(int from) {
+            while (locals.size() > from)
+                locals.remove(locals.size() - 1);
+        }
+
+        void aaload() {
+            op(0x32);
+            pop();
+            pop();
+            push("java/lang/Object");
+        }
+
+        void aastore() {
+            op(0x53);
+            pop();
+            pop();
+            pop();
+        }
+
+        void pop1() {
+            op(0x57);
+            pop();
+        }
+
+        /**
+         * Pops a double.
+         */
+        void pop2() {
+            op(0x58);
+            pop();
+        }
+
+        void dup() {
+            op(0x59);
+            push(peek(0));
+        }
+
+        /**
+         * Copies the top value beneath the two values under it.
+         */
+        void dupX2() {
+            op(0x5B);
+            String value = pop();
+            String second = pop();
+            String third = pop();
+            push(value);
+            push(third);
+            push(second);
+            push(value);
+        }
+
+        /**
+         * Copies the double on top of the stack beneath the reference under it.
+         */
+        void dup2X1() {
+            op(0x5D);
+            String value = pop();
+            String second = pop();
+            push(value);
+            push(second);
+            push(value);
+        }
+
+        /**
+         * Copies the double on top of the stack beneath the double under it.
+         */
+        void dup2X2() {
+            op(0x5E);
+            String value = pop();
+            String second = pop();
+            push(value);
+            push(second);
+            push(value);
+        }
+
+        void dadd() {
+            doubleArithmetic(0x63);
+        }
+
+        void dsub() {
+            doubleArithmetic(0x67);
+        }
+
+        void dmul() {
+            doubleArithmetic(0x6B);
+        }
+
+        void ddiv() {
+            doubleArithmetic(0x6F);
+        }
+
+        private void doubleArithmetic(int opcode) {
+            op(opcode);
+            pop();
+            pop();
+            push("D");
+        }
+
+        void dneg() {
+            op(0x77);
+        }
+
+        void areturn() {
+            op(0xB0);
+            pop();
+            reachable = false;
+        }
+
+        void athrow() {
+            op(0xBF);
+            pop();
+            reachable = false;
+        }
+
+        void getstatic(String owner, String name, String descriptor) {
+            op(0xB2);
+            u2(fieldRef(owner, name, descriptor));
+            push(typeOf(descriptor));
+        }
+
+        void getfield(String owner, String name, String descriptor) {
+            op(0xB4);
+            u2(fieldRef(owner, name, descriptor));
+            pop();
+            push(typeOf(descriptor));
+        }
+
+        void invokestatic(String owner, String name, String descriptor) {
+            op(0xB8);
+            u2(methodRef(owner, name, descriptor));
+            invoked(descriptor, false);
+        }
+
+        void invokevirtual(String owner, String name, String descriptor) {
+            op(0xB6);
+            u2(methodRef(owner, name, descriptor));
+            invoked(descriptor, true);
+        }
+
+        void invokespecial(String owner, String name, String descriptor) {
+            op(0xB7);
+            u2(methodRef(owner, name, descriptor));
+            invoked(descriptor, true);
+        }
+
+        void invokedynamic(int bootstrapMethod, String name, String descriptor) {
+            op(0xBA);
+            u2(ClassFileWriter.this.invokeDynamic(bootstrapMethod, name, descriptor));
+            u2(0);
+            invoked(descriptor, false);
+        }
+
+        /**
+         * Allocates an object. Nothing may branch before its constructor has run.
+         */
+        void newObject(String internalName) {
+            op(0xBB);
+            u2(classRef(internalName));
+            push(internalName);
+        }
+
+        void ifeq(Label label) {
+            jump(0x99, label);
+            pop();
+        }
+
+        void ifne(Label label) {
+            jump(0x9A, label);
+            pop();
+        }
+
+        void goTo(Label label) {
+            jump(0xA7, label);
+            reachable = false;
+        }
+
+        private void jump(int opcode, Label label) {
+            int start = length;
+            op(opcode);
+            if (label.position >= 0) {
+                branchOffset(label.position - start);
+            } else {
+                label.fixups.add(new int[]{start, length});
+                u2(0);
+            }
+        }
+
+        /**
+         * Binds the label to the next instruction. Branches reach it with the stack as it is now, so the frame
+         * recorded here is the current state.
+         */
+        void bind(Label label) {
+            label.position = length;
+            for (int[] fixup : label.fixups) {
+                int offset = length - fixup[0];
+                checkBranch(offset);
+                code[fixup[1]] = (byte) (offset >> 8);
+                code[fixup[1] + 1] = (byte) offset;
+            }
+
+            frame();
+            reachable = true;
+        }
+
+        /**
+         * Records the value on top of the stack as a plain Object, so that branches carrying different kinds of
+         * values to the same label agree on its frame.
+         */
+        void generalizeTop() {
+            stack.set(stack.size() - 1, "java/lang/Object");
+        }
+
+        boolean isReachable() {
+            return reachable;
+        }
+
+        private void frame() {
+            frames.put(length, new Frame(locals.toArray(new String[0]), stack.toArray(new String[0])));
+        }
+
+        private void branchOffset(int offset) {
+            checkBranch(offset);
+            u2(offset);
+        }
+
+        private void checkBranch(int offset) {
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                throw new TooLarge("Branch too far in " + name + ".");
+        }
+
+        private void invoked(String descriptor, boolean hasReceiver) {
+            List<String> parameters = parameterTypes(descriptor);
+            for (int i = 0; i < parameters.size(); i++)
+                pop();
+            if (hasReceiver)
+                pop();
+
+            String returnType = descriptor.substring(descriptor.indexOf(')') + 1);
+            if (!returnType.equals("V"))
+                push(typeOf(returnType));
+        }
+
+        private void op(int opcode) {
+            // Code after a goto or return can only be reached by a branch, and the verifier wants a frame for it.
+            if (!reachable) {
+                frame();
+                reachable = true;
+            }
+            u1(opcode);
+        }
+
+        private void u1(int value) {
+            if (length == code.length)
+                code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void push(String type) {
+            stack.add(type);
+            stackSlots += type.equals("D") ? 2 : 1;
+            maxStack = Math.max(maxStack, stackSlots);
+        }
+
+        private String pop() {
+            String type = stack.remove(stack.size() - 1);
+            stackSlots -= type.equals("D") ? 2 : 1;
+            return type;
+        }
+
+        private String peek(int distance) {
+            return stack.get(stack.size() - 1 - distance);
+        }
+
+        private void writeTo(DataOutputStream out, int codeName, int stackMapName) throws IOException {
+            if (length > 0xFFFF)
+                throw new TooLarge("Method " + name + " is too large.");
+
+            byte[] stackMap = stackMap();
+
+            out.writeShort(ACC_STATIC);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+
+            out.writeShort(codeName);
+            int attributeLength = 12 + length;
+            if (stackMap != null)
+                attributeLength += 6 + stackMap.length;
+            out.writeInt(attributeLength);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); // exception table
+
+            if (stackMap == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(stackMapName);
+                out.writeInt(stackMap.length);
+                out.write(stackMap);
+            }
+        }
+
+        /**
+         * Writes every frame in full. It's bigger than the compressed forms, but these classes are never stored.
+         */
+        private byte[] stackMap() throws IOException {
+            if (frames.isEmpty())
+                return null;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(frames.size());
+
+            int previous = -1;
+            for (Map.Entry<Integer, Frame> entry : frames.entrySet()) {
+                Frame frame = entry.getValue();
+                out.writeByte(255);
+                out.writeShort(entry.getKey() - previous - 1);
+                previous = entry.getKey();
+
+                out.writeShort(frame.locals.length);
+                for (String type : frame.locals)
+                    verificationType(out, type);
+                out.writeShort(frame.stack.length);
+                for (String type : frame.stack)
+                    verificationType(out, type);
+            }
+
+            return bytes.toByteArray();
+        }
+
+        private void verificationType(DataOutputStream out, String type) throws IOException {
+            switch (type) {
+                case "top" -> out.writeByte(0);
+                case "I" -> out.writeByte(1);
+                case "D" -> out.writeByte(3);
+                default -> {
+                    out.writeByte(7);
+                    out.writeShort(classRef(type));
+                }
+            }
+        }
+    }
+
+    /**
+     * The tracked stack type for a field or return descriptor.
+     */
+    private static String typeOf(String descriptor) {
+        return switch (descriptor.charAt(0)) {
+            case 'Z', 'B', 'C', 'S', 'I' -> "I";
+            case 'D' -> "D";
+            case 'L' -> descriptor.substring(1, descriptor.length() - 1);
+            case '[' -> descriptor;
+            default -> throw new IllegalArgumentException("Unsupported type " + descriptor + ".");
+        };
+    }
+
+    private static List<String> parameterTypes(String descriptor) {
+        List<String> types = new ArrayList<>();
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            int start = i;
+            while (descriptor.charAt(i) == '[')
+                i++;
+            if (descriptor.charAt(i) == 'L')
+                i = descriptor.indexOf(';', i);
+            i++;
+            types.add(typeOf(descriptor.substring(start, i)));
+        }
+        return types;
+    }
+}
@@ -1,53 +1,174 @@
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * A scope at runtime. Local scopes are fixed-size frames whose slots were assigned by the Resolver, so they are
+ * read and written by index. The global scope hands its variables over to the Globals table.
+ * <p>
+ * A function's frame doesn't enclose the scope the function was declared in. Whatever the function uses from
+ * there was captured when it was created, and is reached through upvalues.
+ */
 class Environment {
+    /**
+     * Stands in a slot of values whose number is kept unboxed in doubles instead.
+     */
+    static final Object UNBOXED = new Object();
+    private static final Object[] NO_UPVALUES = new Object[0];
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Globals globals;
+    final Object[] values;
+    /**
+     * The variables captured by the function this scope belongs to. Variables that can change after they're
+     * captured are shared through a Cell; the rest are copies of their values.
+     */
+    final Object[] upvalues;
+    /**
+     * Numbers stored by nodes that keep them unboxed, allocated the first time one is.
+     */
+    double[] doubles;
 
-    Environment() {
+    /**
+     * Creates the global environment.
+     */
+    Environment(Globals globals) {
         enclosing = null;
+        this.globals = globals;
+        values = null;
+        upvalues = null;
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        globals = null;
+        values = new Object[size];
+        upvalues = enclosing.upvalues;
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    /**
+     * Creates a scope whose slots marked in cells hold Cells, because closures capture them and they can change.
+     * The cells are there from the start, so closures created before a variable is defined still share it.
+     */
+    Environment(Environment enclosing, int size, boolean[] cells) {
+        this(enclosing, enclosing == null ? null : enclosing.upvalues, size, cells);
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
+    private Environment(Environment enclosing, Object[] upvalues, int size, boolean[] cells) {
+        this.enclosing = enclosing;
+        globals = null;
+        values = new Object[size];
+        this.upvalues = upvalues;
+        if (cells != null) {
+            for (int i = 0; i < size; i++) {
+                if (cells[i])
+                    values[i] = new Cell();
+            }
         }
+    }
+
+    /**
+     * Creates the frame of a call to a function that captured the given upvalues.
+     */
+    static Environment frame(Object[] upvalues, int size, boolean[] cells) {
+        return new Environment(null, upvalues, size, cells);
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+    /**
+     * A variable shared between the scope declaring it and the closures that captured it.
+     */
+    static final class Cell {
+        Object value;
+    }
+
+    /**
+     * Defines a variable in the slot the Resolver gave it, which in the global scope is its index among the globals.
+     * A block merged into this scope can define the same slot every time it runs.
+     */
+    void define(String name, int slot, Object value) {
+        if (globals != null) {
+            globals.define(slot, value);
             return;
         }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        if (values[slot] instanceof Cell cell)
+            cell.value = value;
+        else
+            values[slot] = value;
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
-    }
+    /**
+     * Copies out the variables a closure created in this scope captures.
+     */
+    Object[] capture(Capture[] captures) {
+        if (captures.length == 0)
+            return NO_UPVALUES;
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+        Object[] captured = new Object[captures.length];
+        for (int i = 0; i < captures.length; i++) {
+            Capture capture = captures[i];
+            if (capture.depth >= 0)
+                captured[i] = getAt(capture.depth, capture.index);
+            else
+                captured[i] = upvalues[capture.index];
         }
+        return captured;
+    }
+
+    /**
+     * Reads a local slot, boxing it if it holds an unboxed number.
+     */
+    Object get(int slot) {
+        Object value = values[slot];
+        if (value == UNBOXED)
+            return doubles[slot];
+        return value;
+    }
 
-        if (enclosing != null)
-            return enclosing.get(name);
+    void setDouble(int slot, double value) {
+        if (doubles == null)
+            doubles = new double[values.length];
+        doubles[slot] = value;
+        values[slot] = UNBOXED;
+    }
+
+    /**
+     * Copies a local from another scope into a slot here, leaving it unboxed if it is.
+     */
+    void copy(Environment source, int sourceSlot, int slot) {
+        Object value = source.values[sourceSlot];
+        if (value == UNBOXED)
+            setDouble(slot, source.doubles[sourceSlot]);
+        else
+            values[slot] = value;
+    }
+
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).values[slot] = value;
+    }
+
+    Object getCellAt(int distance, int slot) {
+        return ((Cell) ancestor(distance).values[slot]).value;
+    }
+
+    void assignCellAt(int distance, int slot, Object value) {
+        ((Cell) ancestor(distance).values[slot]).value = value;
+    }
+
+    Object getUpvalue(int index) {
+        return upvalues[index];
+    }
+
+    Object getUpvalueCell(int index) {
+        return ((Cell) upvalues[index]).value;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    /**
+     * Assigns a captured variable. Only variables that were never assigned are captured by value, so this one is in a
+     * Cell.
+     */
+    void assignUpvalue(int index, Object value) {
+        ((Cell) upvalues[index]).value = value;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).get(slot);
     }
 
     Environment ancestor(int distance) {
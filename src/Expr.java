@@ -19,6 +19,10 @@ abstract class Expr {
 	static class Assign extends Expr {
 		final Token name;
 		final Expr value;
+		int depth = -1;
+		int slot;
+		int upvalue = -1;
+		boolean boxed;
 		Assign(Token name, Expr value) {
 			this.name = name;
 			this.value = value;
@@ -50,6 +54,8 @@ abstract class Expr {
 		final Expr callee;
 		final Token paren;
 		final List<Expr> arguments;
+		CalleeCache cache;
+		InlineCache<Expr> inlineCache;
 		Call(Expr callee, Token paren, List<Expr> arguments) {
 			this.callee = callee;
 			this.paren = paren;
@@ -65,6 +71,7 @@ abstract class Expr {
 	static class Get extends Expr {
 		final Expr object;
 		final Token name;
+		PropertyCache cache;
 		Get(Expr object, Token name) {
 			this.object = object;
 			this.name = name;
@@ -120,6 +127,7 @@ abstract class Expr {
 		final Expr object;
 		final Token name;
 		final Expr value;
+		PropertyCache cache;
 		Set(Expr object, Token name, Expr value) {
 			this.object = object;
 			this.name = name;
@@ -135,6 +143,11 @@ abstract class Expr {
 	static class Super extends Expr {
 		final Token keyword;
 		final Token method;
+		int depth = -1;
+		int slot;
+		int upvalue = -1;
+		boolean boxed;
+		Expr.This receiver;
 		Super(Token keyword, Token method) {
 			this.keyword = keyword;
 			this.method = method;
@@ -148,6 +161,10 @@ abstract class Expr {
 
 	static class This extends Expr {
 		final Token keyword;
+		int depth = -1;
+		int slot;
+		int upvalue = -1;
+		boolean boxed;
 		This(Token keyword) {
 			this.keyword = keyword;
 		}
@@ -174,6 +191,10 @@ abstract class Expr {
 
 	static class Variable extends Expr {
 		final Token name;
+		int depth = -1;
+		int slot;
+		int upvalue = -1;
+		boolean boxed;
 		Variable(Token name) {
 			this.name = name;
 		}
@@ -0,0 +1,1257 @@
+import java.util.Arrays;
+
+/**
+ * An executable expression. Each operator, kind of variable access and call arity gets its own class so that every
+ * execute() stays small and monomorphic.
+ */
+abstract class ExprNode extends Node {
+    /**
+     * Whether this node has been swapped out of the tree. A recursive call can reach and specialize a node while an
+     * outer execution of it is still running, and building a second replacement would steal the children from the
+     * first one, so check this before building one.
+     */
+    boolean replaced = false;
+
+    abstract Object execute(Environment frame);
+
+    /**
+     * Evaluates to an unboxed number, for parents that only want one. Nodes that can produce a number without boxing
+     * it override this; when the value turns out not to be a number, it comes back in an UnexpectedResult.
+     */
+    double executeDouble(Environment frame) throws UnexpectedResult {
+        Object value = execute(frame);
+        if (value instanceof Double number)
+            return number;
+        throw new UnexpectedResult(value);
+    }
+
+    /**
+     * Evaluates only for the side effects, so that nodes which would have to box their result can skip that.
+     */
+    void executeVoid(Environment frame) {
+        execute(frame);
+    }
+
+    /**
+     * Thrown by executeDouble() for a value that isn't a number. It carries the value, which has been evaluated
+     * already and mustn't be evaluated again.
+     */
+    static class UnexpectedResult extends Exception {
+        final Object result;
+
+        UnexpectedResult(Object result) {
+            super(null, null, false, false);
+            this.result = result;
+        }
+    }
+
+    /**
+     * Swaps this node out of its parent for a specialized (or more general) version of itself.
+     */
+    <T extends ExprNode> T replace(T replacement) {
+        replaced = true;
+        parent.replaceChild(this, replacement);
+        replacement.parent = parent;
+        return replacement;
+    }
+
+    static class Literal extends ExprNode {
+        final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return value;
+        }
+
+        @Override
+        double executeDouble(Environment frame) throws UnexpectedResult {
+            if (value instanceof Double number)
+                return number;
+            throw new UnexpectedResult(value);
+        }
+    }
+
+    /**
+     * Reads a variable in the innermost scope.
+     */
+    static class ReadLocal extends ExprNode {
+        final int slot;
+
+        ReadLocal(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return frame.get(slot);
+        }
+
+        @Override
+        double executeDouble(Environment frame) throws UnexpectedResult {
+            return readDouble(frame, slot);
+        }
+
+        static double readDouble(Environment frame, int slot) throws UnexpectedResult {
+            Object value = frame.values[slot];
+            if (value == Environment.UNBOXED)
+                return frame.doubles[slot];
+            if (value instanceof Double number)
+                return number;
+            throw new UnexpectedResult(value);
+        }
+    }
+
+    /**
+     * Reads a variable in one of the enclosing scopes.
+     */
+    static class ReadEnclosing extends ExprNode {
+        final int depth;
+        final int slot;
+
+        ReadEnclosing(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return frame.getAt(depth, slot);
+        }
+
+        @Override
+        double executeDouble(Environment frame) throws UnexpectedResult {
+            return ReadLocal.readDouble(frame.ancestor(depth), slot);
+        }
+    }
+
+    static class ReadGlobal extends ExprNode {
+        final Globals globals;
+        final Token name;
+        final int index;
+
+        ReadGlobal(Globals globals, Token name, int index) {
+            this.globals = globals;
+            this.name = name;
+            this.index = index;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return globals.get(index, name);
+        }
+    }
+
+    /**
+     * Reads a variable that closures share through a Cell, in this scope or an enclosing one.
+     */
+    static class ReadCell extends ExprNode {
+        final int depth;
+        final int slot;
+
+        ReadCell(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return frame.getCellAt(depth, slot);
+        }
+    }
+
+    /**
+     * Reads a variable the function captured by value.
+     */
+    static class ReadUpvalue extends ExprNode {
+        final int index;
+
+        ReadUpvalue(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return frame.getUpvalue(index);
+        }
+    }
+
+    /**
+     * Reads a variable the function captured along with its Cell.
+     */
+    static class ReadUpvalueCell extends ExprNode {
+        final int index;
+
+        ReadUpvalueCell(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return frame.getUpvalueCell(index);
+        }
+    }
+
+    static class WriteLocal extends ExprNode {
+        final int slot;
+        ExprNode value;
+
+        WriteLocal(int slot, ExprNode value) {
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object result = value.execute(frame);
+            frame.values[slot] = result;
+            return result;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    /**
+     * Writes a local that has only been assigned numbers so far, keeping them unboxed in the frame. The first value
+     * that isn't a number turns it into a plain WriteLocal.
+     */
+    static class WriteLocalNumber extends ExprNode {
+        final int slot;
+        ExprNode value;
+
+        WriteLocalNumber(int slot, ExprNode value) {
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            try {
+                return executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        double executeDouble(Environment frame) throws UnexpectedResult {
+            double result;
+            try {
+                result = value.executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                frame.values[slot] = e.result;
+                if (!replaced)
+                    replace(new WriteLocal(slot, value));
+                throw e;
+            }
+
+            frame.setDouble(slot, result);
+            return result;
+        }
+
+        @Override
+        void executeVoid(Environment frame) {
+            try {
+                executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                // Stored already.
+            }
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    static class WriteEnclosing extends ExprNode {
+        final int depth;
+        final int slot;
+        ExprNode value;
+
+        WriteEnclosing(int depth, int slot, ExprNode value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object result = value.execute(frame);
+            frame.assignAt(depth, slot, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    /**
+     * WriteLocalNumber for a variable in one of the enclosing scopes.
+     */
+    static class WriteEnclosingNumber extends ExprNode {
+        final int depth;
+        final int slot;
+        ExprNode value;
+
+        WriteEnclosingNumber(int depth, int slot, ExprNode value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            try {
+                return executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        double executeDouble(Environment frame) throws UnexpectedResult {
+            double result;
+            try {
+                result = value.executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                frame.assignAt(depth, slot, e.result);
+                if (!replaced)
+                    replace(new WriteEnclosing(depth, slot, value));
+                throw e;
+            }
+
+            frame.ancestor(depth).setDouble(slot, result);
+            return result;
+        }
+
+        @Override
+        void executeVoid(Environment frame) {
+            try {
+                executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                // Stored already.
+            }
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    static class WriteCell extends ExprNode {
+        final int depth;
+        final int slot;
+        ExprNode value;
+
+        WriteCell(int depth, int slot, ExprNode value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object result = value.execute(frame);
+            frame.assignCellAt(depth, slot, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    static class WriteUpvalue extends ExprNode {
+        final int index;
+        ExprNode value;
+
+        WriteUpvalue(int index, ExprNode value) {
+            this.index = index;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object result = value.execute(frame);
+            frame.assignUpvalue(index, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    static class WriteGlobal extends ExprNode {
+        final Globals globals;
+        final Token name;
+        final int index;
+        ExprNode value;
+
+        WriteGlobal(Globals globals, Token name, int index, ExprNode value) {
+            this.globals = globals;
+            this.name = name;
+            this.index = index;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object result = value.execute(frame);
+            globals.assign(index, name, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    abstract static class Binary extends ExprNode {
+        ExprNode left;
+        final Token operator;
+        ExprNode right;
+
+        Binary(ExprNode left, Token operator, ExprNode right) {
+            this.left = adopt(left);
+            this.operator = operator;
+            this.right = adopt(right);
+        }
+
+        /**
+         * Evaluates the left operand of an operator that only takes numbers. If it isn't one, the right operand is
+         * still evaluated before the error, like the other engines do.
+         */
+        double leftNumber(Environment frame) {
+            try {
+                return left.executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                right.execute(frame);
+                throw new RuntimeError(operator, "Operands must be numbers.");
+            }
+        }
+
+        double rightNumber(Environment frame) {
+            try {
+                return right.executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                throw new RuntimeError(operator, "Operands must be numbers.");
+            }
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (left == child)
+                left = replacement;
+            else if (right == child)
+                right = replacement;
+        }
+    }
+
+    /**
+     * A '+' that hasn't run yet. The first operands it sees decide which specialization it becomes.
+     */
+    static class Add extends Binary {
+        Add(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object l = left.execute(frame);
+            Object r = right.execute(frame);
+
+            if (l instanceof Double a && r instanceof Double b) {
+                if (!replaced)
+                    replace(new AddNumbers(left, operator, right));
+                return a + b;
+            }
+            if (l instanceof String a && r instanceof String b) {
+                if (!replaced)
+                    replace(new AddStrings(left, operator, right));
+                return a + b;
+            }
+
+            throw AddGeneric.operandError(operator);
+        }
+    }
+
+    static class AddNumbers extends Binary {
+        AddNumbers(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            try {
+                return executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        double executeDouble(Environment frame) throws UnexpectedResult {
+            double l;
+            try {
+                l = left.executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                throw new UnexpectedResult(generalize(e.result, right.execute(frame)));
+            }
+
+            try {
+                return l + right.executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                throw new UnexpectedResult(generalize(l, e.result));
+            }
+        }
+
+        private Object generalize(Object l, Object r) {
+            if (!replaced)
+                replace(new AddGeneric(left, operator, right));
+            return AddGeneric.add(operator, l, r);
+        }
+    }
+
+    static class AddStrings extends Binary {
+        AddStrings(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object l = left.execute(frame);
+            Object r = right.execute(frame);
+
+            if (l instanceof String a && r instanceof String b)
+                return a + b;
+
+            if (!replaced)
+                replace(new AddGeneric(left, operator, right));
+            return AddGeneric.add(operator, l, r);
+        }
+    }
+
+    /**
+     * A '+' that has seen both numbers and strings, so it checks for each every time.
+     */
+    static class AddGeneric extends Binary {
+        AddGeneric(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return add(operator, left.execute(frame), right.execute(frame));
+        }
+
+        static Object add(Token operator, Object l, Object r) {
+            if (l instanceof Double a && r instanceof Double b)
+                return a + b;
+            if (l instanceof String a && r instanceof String b)
+                return a + b;
+
+            throw operandError(operator);
+        }
+
+        static RuntimeError operandError(Token operator) {
+            return new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+    }
+
+    static class Subtract extends Binary {
+        Subtract(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            return leftNumber(frame) - rightNumber(frame);
+        }
+    }
+
+    static class Multiply extends Binary {
+        Multiply(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            return leftNumber(frame) * rightNumber(frame);
+        }
+    }
+
+    static class Divide extends Binary {
+        Divide(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            return leftNumber(frame) / rightNumber(frame);
+        }
+    }
+
+    static class Greater extends Binary {
+        Greater(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return leftNumber(frame) > rightNumber(frame);
+        }
+    }
+
+    static class GreaterEqual extends Binary {
+        GreaterEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return leftNumber(frame) >= rightNumber(frame);
+        }
+    }
+
+    static class Less extends Binary {
+        Less(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return leftNumber(frame) < rightNumber(frame);
+        }
+    }
+
+    static class LessEqual extends Binary {
+        LessEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return leftNumber(frame) <= rightNumber(frame);
+        }
+    }
+
+    static class Equal extends Binary {
+        Equal(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return Interpreter.isEqual(left.execute(frame), right.execute(frame));
+        }
+    }
+
+    static class NotEqual extends Binary {
+        NotEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return !Interpreter.isEqual(left.execute(frame), right.execute(frame));
+        }
+    }
+
+    static class And extends Binary {
+        And(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object l = left.execute(frame);
+            if (!Interpreter.isTruthy(l))
+                return l;
+            return right.execute(frame);
+        }
+    }
+
+    static class Or extends Binary {
+        Or(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object l = left.execute(frame);
+            if (Interpreter.isTruthy(l))
+                return l;
+            return right.execute(frame);
+        }
+    }
+
+    static class Negate extends ExprNode {
+        final Token operator;
+        ExprNode right;
+
+        Negate(Token operator, ExprNode right) {
+            this.operator = operator;
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            try {
+                return -right.executeDouble(frame);
+            } catch (UnexpectedResult e) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            right = replacement;
+        }
+    }
+
+    static class Not extends ExprNode {
+        ExprNode right;
+
+        Not(ExprNode right) {
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return !Interpreter.isTruthy(right.execute(frame));
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            right = replacement;
+        }
+    }
+
+    /**
+     * Shared parts of the call nodes. Each arity up to four has its own subclass, so they pass their arguments one by
+     * one with nothing to collect them in.
+     * <p>
+     * Calls of the form obj.name(...) keep the name, and their callee node evaluates obj. When the name finds a method
+     * it's called with obj as 'this' directly, so the method is never bound.
+     */
+    abstract static class Call extends ExprNode {
+        final Interpreter interpreter;
+        ExprNode callee;
+        final Token paren;
+        /**
+         * The property named by a method call, or null for other calls.
+         */
+        final Token name;
+        private final PropertyCache cache;
+        private final CalleeCache calleeCache = new CalleeCache();
+        final InlineCache<ExprNode> inlining = new InlineCache<>(this::compileInlined);
+
+        Call(Interpreter interpreter, ExprNode callee, Token paren, Token name) {
+            this.interpreter = interpreter;
+            this.callee = adopt(callee);
+            this.paren = paren;
+            this.name = name;
+            this.cache = name == null ? null : new PropertyCache();
+        }
+
+        /**
+         * Returns the method a method call runs, or null if this isn't a method call or the property isn't a method.
+         */
+        LoxFunction method(Object object) {
+            if (name == null)
+                return null;
+
+            if (!(object instanceof LoxInstance instance))
+                throw new RuntimeError(name, "Only instances have properties.");
+            return instance.method(name, cache);
+        }
+
+        /**
+         * Returns the value being called: the method, if there is one, or else the callee's value.
+         */
+        Object function(Object object, LoxFunction method) {
+            if (method != null)
+                return method;
+            if (name == null)
+                return object;
+            return ((LoxInstance) object).get(name, cache);
+        }
+
+        LoxCallable check(Object function, int argumentCount) {
+            return calleeCache.check(function, paren, argumentCount);
+        }
+
+        /**
+         * Returns the body to run in place of calling the function, if it's been inlined here, or else null.
+         */
+        ExprNode inlined(LoxFunction method, LoxCallable function) {
+            return inlining.body(method != null ? method : function);
+        }
+
+        /**
+         * Returns what an inlined method runs with as 'this'.
+         */
+        LoxInstance inlinedReceiver(Object object, LoxFunction method) {
+            return inlining.receiver(method != null ? (LoxInstance) object : null);
+        }
+
+        private ExprNode compileInlined(Expr body) {
+            return adopt(new Inlined(new NodeCompiler(interpreter).compile(body)));
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (callee == child)
+                callee = replacement;
+        }
+    }
+
+    static class Call0 extends Call {
+        Call0(Interpreter interpreter, ExprNode callee, Token paren, Token name) {
+            super(interpreter, callee, paren, name);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            try {
+                Object object = callee.execute(frame);
+                LoxFunction method = method(object);
+                LoxCallable function = check(function(object, method), 0);
+                ExprNode body = inlined(method, function);
+                if (body != null)
+                    return body.execute(inlining.function().frame0(inlinedReceiver(object, method)));
+                if (method != null)
+                    return method.callMethod0(interpreter, (LoxInstance) object);
+                return function.call0(interpreter);
+            } catch (StackOverflowError error) {
+                throw Interpreter.stackOverflow(paren);
+            }
+        }
+    }
+
+    static class Call1 extends Call {
+        ExprNode argument;
+
+        Call1(Interpreter interpreter, ExprNode callee, Token paren, Token name, ExprNode argument) {
+            super(interpreter, callee, paren, name);
+            this.argument = adopt(argument);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            try {
+                Object object = callee.execute(frame);
+                LoxFunction method = method(object);
+                Object function = function(object, method);
+                Object a = argument.execute(frame);
+                LoxCallable checked = check(function, 1);
+                ExprNode body = inlined(method, checked);
+                if (body != null)
+                    return body.execute(inlining.function().frame1(inlinedReceiver(object, method), a));
+                if (method != null)
+                    return method.callMethod1(interpreter, (LoxInstance) object, a);
+                return checked.call1(interpreter, a);
+            } catch (StackOverflowError error) {
+                throw Interpreter.stackOverflow(paren);
+            }
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (argument == child)
+                argument = replacement;
+            else
+                super.replaceChild(child, replacement);
+        }
+    }
+
+    static class Call2 extends Call {
+        ExprNode first;
+        ExprNode second;
+
+        Call2(Interpreter interpreter, ExprNode callee, Token paren, Token name, ExprNode first, ExprNode second) {
+            super(interpreter, callee, paren, name);
+            this.first = adopt(first);
+            this.second = adopt(second);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            try {
+                Object object = callee.execute(frame);
+                LoxFunction method = method(object);
+                Object function = function(object, method);
+                Object a = first.execute(frame);
+                Object b = second.execute(frame);
+                LoxCallable checked = check(function, 2);
+                ExprNode body = inlined(method, checked);
+                if (body != null)
+                    return body.execute(inlining.function().frame2(inlinedReceiver(object, method), a, b));
+                if (method != null)
+                    return method.callMethod2(interpreter, (LoxInstance) object, a, b);
+                return checked.call2(interpreter, a, b);
+            } catch (StackOverflowError error) {
+                throw Interpreter.stackOverflow(paren);
+            }
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (first == child)
+                first = replacement;
+            else if (second == child)
+                second = replacement;
+            else
+                super.replaceChild(child, replacement);
+        }
+    }
+
+    static class Call3 extends Call {
+        ExprNode first;
+        ExprNode second;
+        ExprNode third;
+
+        Call3(Interpreter interpreter, ExprNode callee, Token paren, Token name, ExprNode first, ExprNode second,
+              ExprNode third) {
+            super(interpreter, callee, paren, name);
+            this.first = adopt(first);
+            this.second = adopt(second);
+            this.third = adopt(third);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            try {
+                Object object = callee.execute(frame);
+                LoxFunction method = method(object);
+                Object function = function(object, method);
+                Object a = first.execute(frame);
+                Object b = second.execute(frame);
+                Object c = third.execute(frame);
+                LoxCallable checked = check(function, 3);
+                ExprNode body = inlined(method, checked);
+                if (body != null)
+                    return body.execute(inlining.function().frame3(inlinedReceiver(object, method), a, b, c));
+                if (method != null)
+                    return method.callMethod3(interpreter, (LoxInstance) object, a, b, c);
+                return checked.call3(interpreter, a, b, c);
+            } catch (StackOverflowError error) {
+                throw Interpreter.stackOverflow(paren);
+            }
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (first == child)
+                first = replacement;
+            else if (second == child)
+                second = replacement;
+            else if (third == child)
+                third = replacement;
+            else
+                super.replaceChild(child, replacement);
+        }
+    }
+
+    static class Call4 extends Call {
+        ExprNode first;
+        ExprNode second;
+        ExprNode third;
+        ExprNode fourth;
+
+        Call4(Interpreter interpreter, ExprNode callee, Token paren, Token name, ExprNode first, ExprNode second,
+              ExprNode third, ExprNode fourth) {
+            super(interpreter, callee, paren, name);
+            this.first = adopt(first);
+            this.second = adopt(second);
+            this.third = adopt(third);
+            this.fourth = adopt(fourth);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            try {
+                Object object = callee.execute(frame);
+                LoxFunction method = method(object);
+                Object function = function(object, method);
+                Object a = first.execute(frame);
+                Object b = second.execute(frame);
+                Object c = third.execute(frame);
+                Object d = fourth.execute(frame);
+                LoxCallable checked = check(function, 4);
+                ExprNode body = inlined(method, checked);
+                if (body != null)
+                    return body.execute(inlining.function().frame4(inlinedReceiver(object, method), a, b, c, d));
+                if (method != null)
+                    return method.callMethod4(interpreter, (LoxInstance) object, a, b, c, d);
+                return checked.call4(interpreter, a, b, c, d);
+            } catch (StackOverflowError error) {
+                throw Interpreter.stackOverflow(paren);
+            }
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (first == child)
+                first = replacement;
+            else if (second == child)
+                second = replacement;
+            else if (third == child)
+                third = replacement;
+            else if (fourth == child)
+                fourth = replacement;
+            else
+                super.replaceChild(child, replacement);
+        }
+    }
+
+    static class CallN extends Call {
+        final ExprNode[] arguments;
+
+        CallN(Interpreter interpreter, ExprNode callee, Token paren, Token name, ExprNode[] arguments) {
+            super(interpreter, callee, paren, name);
+            this.arguments = arguments;
+            for (ExprNode argument : arguments)
+                adopt(argument);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            try {
+                Object object = callee.execute(frame);
+                LoxFunction method = method(object);
+                Object function = function(object, method);
+
+                Object[] values = new Object[arguments.length];
+                for (int i = 0; i < arguments.length; i++)
+                    values[i] = arguments[i].execute(frame);
+
+                LoxCallable checked = check(function, values.length);
+                ExprNode body = inlined(method, checked);
+                if (body != null)
+                    return body.execute(inlining.function().frame(inlinedReceiver(object, method), values));
+                if (method != null)
+                    return method.callMethod(interpreter, (LoxInstance) object, values);
+                return checked.call(interpreter, values);
+            } catch (StackOverflowError error) {
+                throw Interpreter.stackOverflow(paren);
+            }
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] == child) {
+                    arguments[i] = replacement;
+                    return;
+                }
+            }
+            super.replaceChild(child, replacement);
+        }
+    }
+
+    /**
+     * A call in tail position. Calls to Lox functions are only set up, for the function returning to run.
+     */
+    static class TailCall extends ExprNode {
+        final Interpreter interpreter;
+        ExprNode callee;
+        final Token paren;
+        final ExprNode[] arguments;
+        private final CalleeCache calleeCache = new CalleeCache();
+        private final InlineCache<ExprNode> inlining = new InlineCache<>(this::compileInlined);
+
+        TailCall(Interpreter interpreter, ExprNode callee, Token paren, ExprNode[] arguments) {
+            this.interpreter = interpreter;
+            this.callee = adopt(callee);
+            this.paren = paren;
+            this.arguments = arguments;
+            for (ExprNode argument : arguments)
+                adopt(argument);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            try {
+                Object function = callee.execute(frame);
+
+                Object[] values = new Object[arguments.length];
+                for (int i = 0; i < arguments.length; i++)
+                    values[i] = arguments[i].execute(frame);
+
+                LoxCallable checked = calleeCache.check(function, paren, values.length);
+                ExprNode body = inlining.body(checked);
+                if (body != null)
+                    return body.execute(inlining.function().frame(inlining.receiver(null), values));
+                if (checked instanceof LoxFunction loxFunction)
+                    return loxFunction.tailCall(values);
+                return checked.call(interpreter, values);
+            } catch (StackOverflowError error) {
+                throw Interpreter.stackOverflow(paren);
+            }
+        }
+
+        private ExprNode compileInlined(Expr body) {
+            return adopt(new Inlined(new NodeCompiler(interpreter).compile(body)));
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (callee == child) {
+                callee = replacement;
+                return;
+            }
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] == child)
+                    arguments[i] = replacement;
+            }
+        }
+    }
+
+    /**
+     * Holds the body of a function inlined at a call, so that its nodes can specialize without the call knowing
+     * about it. It runs in a frame the call sets up like the function would have.
+     */
+    static class Inlined extends ExprNode {
+        ExprNode body;
+
+        Inlined(ExprNode body) {
+            this.body = adopt(body);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return body.execute(frame);
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            body = replacement;
+        }
+    }
+
+    static class Get extends ExprNode {
+        ExprNode object;
+        final Token name;
+        private final PropertyCache cache = new PropertyCache();
+
+        Get(ExprNode object, Token name) {
+            this.object = adopt(object);
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object value = object.execute(frame);
+            if (value instanceof LoxInstance instance)
+                return instance.get(name, cache);
+
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            object = replacement;
+        }
+    }
+
+    static class Set extends ExprNode {
+        ExprNode object;
+        final Token name;
+        ExprNode value;
+        private final PropertyCache cache = new PropertyCache();
+
+        Set(ExprNode object, Token name, ExprNode value) {
+            this.object = adopt(object);
+            this.name = name;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object target = object.execute(frame);
+
+            if (!(target instanceof LoxInstance instance))
+                throw new RuntimeError(name, "Only instances have fields.");
+
+            Object result = value.execute(frame);
+            instance.set(name, result, cache);
+            return result;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (object == child)
+                object = replacement;
+            else if (value == child)
+                value = replacement;
+        }
+    }
+
+    static class Super extends ExprNode {
+        ExprNode superclass;
+        ExprNode receiver;
+        final Token method;
+
+        Super(ExprNode superclass, ExprNode receiver, Token method) {
+            this.superclass = adopt(superclass);
+            this.receiver = adopt(receiver);
+            this.method = method;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            LoxClass superclass = (LoxClass) this.superclass.execute(frame);
+            LoxInstance object = (LoxInstance) receiver.execute(frame);
+
+            LoxFunction function = superclass.findMethod(method.lexeme);
+
+            if (function == null)
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+
+            return function.bind(object);
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            if (superclass == child)
+                superclass = replacement;
+            else
+                receiver = replacement;
+        }
+    }
+}
@@ -13,31 +13,35 @@ public class GenerateAst {
 
         String outputDir = args[0];
 
+        // Fields after '|' aren't set by the parser; they're filled in later, e.g. by the Resolver.
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign : Token name, Expr value",
+                "Assign : Token name, Expr value | int depth = -1, int slot, int upvalue = -1, boolean boxed",
                 "Binary : Expr left, Token operator, Expr right",
-                "Call : Expr callee, Token paren, List<Expr> arguments",
-                "Get : Expr object, Token name",
+                "Call : Expr callee, Token paren, List<Expr> arguments | CalleeCache cache, " +
+                        "InlineCache<Expr> inlineCache",
+                "Get : Expr object, Token name | PropertyCache cache",
                 "Grouping : Expr expression",
                 "Literal : Object value",
                 "Logical : Expr left, Token operator, Expr right",
-                "Set : Expr object, Token name, Expr value",
-                "Super : Token keyword, Token method",
-                "This : Token keyword",
+                "Set : Expr object, Token name, Expr value | PropertyCache cache",
+                "Super : Token keyword, Token method | int depth = -1, int slot, int upvalue = -1, boolean boxed, " +
+                        "Expr.This receiver",
+                "This : Token keyword | int depth = -1, int slot, int upvalue = -1, boolean boxed",
                 "Unary : Token operator, Expr right",
-                "Variable : Token name"
+                "Variable : Token name | int depth = -1, int slot, int upvalue = -1, boolean boxed"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block : List<Stmt> statements",
-                "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+                "Block : List<Stmt> statements | int slotCount, boolean[] cells",
+                "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1",
                 "Expression : Expr expression",
-                "Function : Token name, List<Token> params, List<Stmt> body",
+                "Function : Token name, List<Token> params, List<Stmt> body | int slotCount, boolean[] cells, " +
+                        "Capture[] captures, int slot = -1, Tiering.Profile profile",
                 "If : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print : Expr expression",
                 "Return : Token keyword, Expr value",
-                "Var : Token name, Expr initializer",
-                "While : Expr condition, Stmt body"
+                "Var : Token name, Expr initializer | int slot = -1",
+                "While : Expr condition, Stmt body | Tiering.Loop loop"
         ));
     }
 
@@ -53,8 +57,9 @@ public class GenerateAst {
 
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fields = type.split(":")[1].split("\\|");
+            String mutableFields = fields.length > 1 ? fields[1].trim() : null;
+            defineType(writer, baseName, className, fields[0].trim(), mutableFields);
         }
 
         // Base accept() method
@@ -65,7 +70,8 @@ public class GenerateAst {
         writer.close();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String mutableFieldList) {
         writer.println("\tstatic class " + className + " extends " + baseName + " {");
 
         String[] fields = fieldList.split(", ");
@@ -74,6 +80,11 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println("\t\tfinal " + field + ";");
         }
+        if (mutableFieldList != null) {
+            for (String field : mutableFieldList.split(", ")) {
+                writer.println("\t\t" + field + ";");
+            }
+        }
 
         // Constructor
         writer.println("\t\t" + className + "(" + fieldList + ") {");
@@ -0,0 +1,57 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The global variables, kept in an array instead of by name. The Resolver gives every global a script declares or
+ * refers to an index the first time it sees the name, and stores it on the expression or declaration, so reading or
+ * writing a global at runtime is an array access. Indices outlive the script that assigned them, so a name means the
+ * same global in every line the REPL runs.
+ * <p>
+ * A name can be used before it's defined, for instance in a function that's declared first, so its slot holds
+ * UNDEFINED until it is.
+ */
+final class Globals {
+    private static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> indices = new HashMap<>();
+    private Object[] values = new Object[64];
+    private int count = 0;
+
+    Globals() {
+        Arrays.fill(values, UNDEFINED);
+    }
+
+    /**
+     * Returns the index of the global with the given name, giving it the next free one if it doesn't have one yet.
+     */
+    int index(String name) {
+        Integer index = indices.get(name);
+        if (index != null)
+            return index;
+
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+            Arrays.fill(values, count, values.length, UNDEFINED);
+        }
+        indices.put(name, count);
+        return count++;
+    }
+
+    void define(int index, Object value) {
+        values[index] = value;
+    }
+
+    Object get(int index, Token name) {
+        Object value = values[index];
+        if (value == UNDEFINED)
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        return value;
+    }
+
+    void assign(int index, Token name, Object value) {
+        if (values[index] == UNDEFINED)
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        values[index] = value;
+    }
+}
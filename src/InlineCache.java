@@ -0,0 +1,98 @@
+import java.util.function.Function;
+
+/**
+ * Inlines a small function at one call site. The first Lox function a call calls is inlined if all its body does is
+ * return an expression that's small and makes no calls, so inlining it can never recurse. From then on the call site
+ * checks it's calling that very function before running the inlined body in place of a call. The first time it
+ * isn't, say because the variable holding the function was reassigned, the call site goes back to calling normally
+ * for good.
+ *
+ * @param <T> what the engine runs the inlined body as
+ */
+final class InlineCache<T> {
+    /**
+     * The most expressions an inlined body can be made of.
+     */
+    private static final int MAX_SIZE = 16;
+
+    private final Function<Expr, T> compile;
+    private LoxFunction function;
+    private T body;
+    /**
+     * Whether the call site has had its one chance to inline something.
+     */
+    private boolean tried = false;
+
+    InlineCache(Function<Expr, T> compile) {
+        this.compile = compile;
+    }
+
+    /**
+     * Returns the body to run instead of calling the callee, or null if the call has to be made. The callee has
+     * already been checked by a CalleeCache.
+     */
+    T body(LoxCallable callee) {
+        if (callee == function)
+            return body;
+
+        if (tried) {
+            function = null;
+            body = null;
+            return null;
+        }
+
+        tried = true;
+        if (callee instanceof LoxFunction candidate && !candidate.isInitializer) {
+            Expr expression = inlinable(candidate.declaration);
+            if (expression != null) {
+                function = candidate;
+                body = compile.apply(expression);
+                return body;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The function whose body {@link #body} last returned.
+     */
+    LoxFunction function() {
+        return function;
+    }
+
+    /**
+     * Returns what the inlined body runs with as 'this': the instance a method was found on, or else whatever the
+     * function was bound to.
+     */
+    LoxInstance receiver(LoxInstance instance) {
+        if (instance != null)
+            return instance;
+        return function.receiver;
+    }
+
+    /**
+     * Returns the expression a function returns if that's all its body does and it's small enough to inline.
+     */
+    private static Expr inlinable(Stmt.Function declaration) {
+        if (declaration.body.size() != 1 || !(declaration.body.get(0) instanceof Stmt.Return returnStmt))
+            return null;
+        if (returnStmt.value == null || size(returnStmt.value) > MAX_SIZE)
+            return null;
+        return returnStmt.value;
+    }
+
+    private static int size(Expr expr) {
+        return switch (expr) {
+            case Expr.Assign assign -> 1 + size(assign.value);
+            case Expr.Binary binary -> 1 + size(binary.left) + size(binary.right);
+            // Anything it calls could end up calling it again.
+            case Expr.Call call -> MAX_SIZE + 1;
+            case Expr.Get get -> 1 + size(get.object);
+            case Expr.Grouping grouping -> 1 + size(grouping.expression);
+            case Expr.Logical logical -> 1 + size(logical.left) + size(logical.right);
+            case Expr.Set set -> 1 + size(set.object) + size(set.value);
+            case Expr.Unary unary -> 1 + size(unary.right);
+            default -> 1;
+        };
+    }
+}
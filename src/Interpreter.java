@@ -1,31 +1,33 @@
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandle;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
+    /**
+     * What executing a statement gives when it finishes without returning, so execution goes on to the next one.
+     * Anything else is the value a return statement returned, which is passed up until it reaches the function's
+     * call. Nothing is thrown, so returning is ordinary control flow.
+     */
+    static final Object COMPLETED = new Object();
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Globals globals = new Globals();
+    /**
+     * The scope top-level code runs in, which defines globals.
+     */
+    private final Environment topLevel = new Environment(globals);
+    private Environment environment = topLevel;
+    /**
+     * Set under tiered execution, where new functions get their profile from it.
+     */
+    Tiering tiering;
+    /**
+     * The profile of the function being walked, which counts the iterations of its loops.
+     */
+    private Tiering.Profile profile;
 
     Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
-
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+        Natives.FUNCTIONS.forEach((name, function) -> globals.define(globals.index(name), function));
     }
 
     void interpret(List<Stmt> statements) {
@@ -38,18 +40,56 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    /**
+     * Runs a program the NodeCompiler has built, instead of walking its statements.
+     */
+    void interpret(StmtNode program) {
+        try {
+            program.execute(topLevel);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    /**
+     * Runs a program the JvmCompiler has compiled to a method.
+     */
+    void interpret(MethodHandle program) {
+        try {
+            JvmRuntime.invoke(program, topLevel);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    private Object execute(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /**
+     * Runs the body of a function that has a profile when tiering, so its loops count towards compiling it.
+     */
+    Object executeFunction(List<Stmt> body, Environment environment, Tiering.Profile profile) {
+        Tiering.Profile previous = this.profile;
+        try {
+            this.profile = profile;
+            return executeBlock(body, environment);
+        } finally {
+            this.profile = previous;
+        }
+    }
+
+    Object executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
 
             for (Stmt statement : statements) {
-                execute(statement);
+                Object result = execute(statement);
+                if (result != COMPLETED)
+                    return result;
             }
+            return COMPLETED;
         } finally {
             this.environment = previous;
         }
@@ -59,11 +99,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null)
             return "nil";
 
@@ -78,7 +114,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return object.toString();
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null)
             return false;
         if (object instanceof Boolean)
@@ -86,7 +122,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return true;
     }
     
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null)
             return b == null;
 
@@ -96,7 +132,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     /**
      * Throws an error if operand is not a number
      */
-    private void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double)
             return;
         throw new RuntimeError(operator, "Operand must be a number.");
@@ -105,33 +141,51 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     /**
      * Throws an error if either left or right are not numbers
      */
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double)
             return;
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
-        } else {
-            return globals.get(name);
-        }
+    /**
+     * Makes the error for a call that ran out of Java stack. Every engine but the VM nests Lox calls on the Java stack,
+     * so each of their call sites catches the StackOverflowError and reports it at its paren, like the VM does.
+     * <p>
+     * The JVM can throw it wherever the stack happens to run out, which isn't always in Lox code: it can be in the
+     * middle of adding a Shape transition or a PropertyCache entry, rewriting a node or compiling a hot function. A
+     * script stops at the error, but a REPL session goes on with whatever state that left behind.
+     */
+    static RuntimeError stackOverflow(Token paren) {
+        return new RuntimeError(paren, "Stack overflow.");
+    }
+
+    /**
+     * Variables the function captured have an upvalue index. Otherwise, a negative depth means the Resolver didn't
+     * find a local, so the variable is global and the slot is its index among the globals.
+     */
+    private Object lookUpVariable(Token name, int depth, int slot, int upvalue, boolean boxed) {
+        if (upvalue >= 0)
+            return boxed ? environment.getUpvalueCell(upvalue) : environment.getUpvalue(upvalue);
+        if (depth >= 0)
+            return boxed ? environment.getCellAt(depth, slot) : environment.getAt(depth, slot);
+        return globals.get(slot, name);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.upvalue >= 0) {
+            environment.assignUpvalue(expr.upvalue, value);
+        } else if (expr.depth >= 0) {
+            if (expr.boxed)
+                environment.assignCellAt(expr.depth, expr.slot, value);
+            else
+                environment.assignAt(expr.depth, expr.slot, value);
         } else {
-            globals.assign(expr.name, value);
+            globals.assign(expr.slot, expr.name, value);
         }
 
-        environment.assign(expr.name, value);
         return value;
     }
 
@@ -182,32 +236,134 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
-
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments)
-            arguments.add(evaluate(argument));
-
-        if (!(callee instanceof LoxCallable function))
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+        try {
+            return call(expr);
+        } catch (StackOverflowError error) {
+            throw stackOverflow(expr.paren);
+        }
+    }
 
-        if (arguments.size() != function.arity())
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments, " +
-                    "but got " + arguments.size() + ".");
+    private Object call(Expr.Call expr) {
+        // For obj.method(...), the method is called with obj as 'this' instead of being bound to it first.
+        LoxInstance receiver = null;
+        Object callee;
+        if (expr.callee instanceof Expr.Get get) {
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance instance))
+                throw new RuntimeError(get.name, "Only instances have properties.");
+
+            PropertyCache cache = cache(get);
+            callee = instance.method(get.name, cache);
+            if (callee != null)
+                receiver = instance;
+            else
+                callee = instance.get(get.name, cache);
+        } else {
+            callee = evaluate(expr.callee);
+        }
 
-        return function.call(this, arguments);
+        // Calls with few arguments pass them one by one, with nothing to collect them in.
+        List<Expr> arguments = expr.arguments;
+        CalleeCache calleeCache = cache(expr);
+        InlineCache<Expr> inlining = inlineCache(expr);
+        switch (arguments.size()) {
+            case 0 -> {
+                LoxCallable function = calleeCache.check(callee, expr.paren, 0);
+                Expr body = inlining.body(function);
+                if (body != null)
+                    return inline(body, inlining.function().frame0(inlining.receiver(receiver)));
+                if (receiver != null)
+                    return ((LoxFunction) function).callMethod0(this, receiver);
+                return function.call0(this);
+            }
+            case 1 -> {
+                Object a = evaluate(arguments.get(0));
+                LoxCallable function = calleeCache.check(callee, expr.paren, 1);
+                Expr body = inlining.body(function);
+                if (body != null)
+                    return inline(body, inlining.function().frame1(inlining.receiver(receiver), a));
+                if (receiver != null)
+                    return ((LoxFunction) function).callMethod1(this, receiver, a);
+                return function.call1(this, a);
+            }
+            case 2 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                LoxCallable function = calleeCache.check(callee, expr.paren, 2);
+                Expr body = inlining.body(function);
+                if (body != null)
+                    return inline(body, inlining.function().frame2(inlining.receiver(receiver), a, b));
+                if (receiver != null)
+                    return ((LoxFunction) function).callMethod2(this, receiver, a, b);
+                return function.call2(this, a, b);
+            }
+            case 3 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                LoxCallable function = calleeCache.check(callee, expr.paren, 3);
+                Expr body = inlining.body(function);
+                if (body != null)
+                    return inline(body, inlining.function().frame3(inlining.receiver(receiver), a, b, c));
+                if (receiver != null)
+                    return ((LoxFunction) function).callMethod3(this, receiver, a, b, c);
+                return function.call3(this, a, b, c);
+            }
+            case 4 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                Object d = evaluate(arguments.get(3));
+                LoxCallable function = calleeCache.check(callee, expr.paren, 4);
+                Expr body = inlining.body(function);
+                if (body != null)
+                    return inline(body, inlining.function().frame4(inlining.receiver(receiver), a, b, c, d));
+                if (receiver != null)
+                    return ((LoxFunction) function).callMethod4(this, receiver, a, b, c, d);
+                return function.call4(this, a, b, c, d);
+            }
+            default -> {
+                Object[] values = new Object[arguments.size()];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = evaluate(arguments.get(i));
+
+                LoxCallable function = calleeCache.check(callee, expr.paren, values.length);
+                Expr body = inlining.body(function);
+                if (body != null)
+                    return inline(body, inlining.function().frame(inlining.receiver(receiver), values));
+                if (receiver != null)
+                    return ((LoxFunction) function).callMethod(this, receiver, values);
+                return function.call(this, values);
+            }
+        }
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return ((LoxInstance) object).get(expr.name, cache(expr));
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
     }
 
+    /**
+     * Returns the cache of a property access, made the first time it runs. The other engines keep their own, so an
+     * access that's never walked doesn't need one.
+     */
+    private static PropertyCache cache(Expr.Get expr) {
+        if (expr.cache == null)
+            expr.cache = new PropertyCache();
+        return expr.cache;
+    }
+
+    private static PropertyCache cache(Expr.Set expr) {
+        if (expr.cache == null)
+            expr.cache = new PropertyCache();
+        return expr.cache;
+    }
+
     @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
         return evaluate(expr.expression);
@@ -239,17 +395,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             throw new RuntimeError(expr.name, "Only instances have fields.");
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        ((LoxInstance)object).set(expr.name, value, cache(expr));
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-
-        // 'this' is always one environment closer than 'super'.
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+        LoxClass superclass = (LoxClass) lookUpVariable(expr.keyword, expr.depth, expr.slot, expr.upvalue,
+                expr.boxed);
+        LoxInstance object = (LoxInstance) evaluate(expr.receiver);
 
         LoxFunction method = superclass.findMethod(expr.method.lexeme);
 
@@ -262,7 +416,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot, expr.upvalue, expr.boxed);
     }
 
     @Override
@@ -283,17 +437,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot, expr.upvalue, expr.boxed);
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Object visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.slotCount == 0) {
+            // The Resolver merged the block into the enclosing scope.
+            for (Stmt statement : stmt.statements) {
+                Object result = execute(statement);
+                if (result != COMPLETED)
+                    return result;
+            }
+            return COMPLETED;
+        }
+        return executeBlock(stmt.statements, new Environment(environment, stmt.slotCount, stmt.cells));
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Object visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -301,17 +463,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
         }
 
-        environment.define(stmt.name.lexeme, null);
-
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1);
+            environment.define("super", 0, superclass);
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment,
-                    method.name.lexeme.equals("init"));
+            LoxFunction function = newFunction(method, method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
 
@@ -320,64 +479,146 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (superclass != null)
             environment = environment.enclosing;
 
-        environment.assign(stmt.name, loxClass);
-        return null;
+        // Methods can only reach the class's own name once they're called, so it can be defined last.
+        environment.define(stmt.name.lexeme, stmt.slot, loxClass);
+        return COMPLETED;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Object visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return COMPLETED;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Object visitFunctionStmt(Stmt.Function stmt) {
+        LoxFunction function = newFunction(stmt, false);
+        environment.define(stmt.name.lexeme, stmt.slot, function);
+        return COMPLETED;
+    }
+
+    private LoxFunction newFunction(Stmt.Function declaration, boolean isInitializer) {
+        if (tiering != null)
+            return new LoxFunction(declaration, environment, isInitializer, tiering.profile(declaration));
+        return new LoxFunction(declaration, environment, isInitializer);
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Object visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition)))
-            execute(stmt.thenBranch);
-        else if (stmt.elseBranch != null)
-            execute(stmt.elseBranch);
-
-        return null;
+            return execute(stmt.thenBranch);
+        if (stmt.elseBranch != null)
+            return execute(stmt.elseBranch);
+        return COMPLETED;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Object visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return COMPLETED;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Object visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if (stmt.value != null)
+        if (stmt.value instanceof Expr.Call call)
+            value = tailCall(call);
+        else if (stmt.value != null)
             value = evaluate(stmt.value);
 
-        throw new Return(value);
+        return value;
+    }
+
+    /**
+     * Returns the cache of a call's callee, made the first time the call runs. The other engines keep their own.
+     */
+    private static CalleeCache cache(Expr.Call expr) {
+        if (expr.cache == null)
+            expr.cache = new CalleeCache();
+        return expr.cache;
+    }
+
+    /**
+     * Returns the cache a call inlines its callee with, made the first time the call runs. The node engine keeps its
+     * own.
+     */
+    private static InlineCache<Expr> inlineCache(Expr.Call expr) {
+        if (expr.inlineCache == null)
+            expr.inlineCache = new InlineCache<>(body -> body);
+        return expr.inlineCache;
+    }
+
+    /**
+     * Evaluates a call in tail position. A call to a Lox function is only set up, and the function returning runs it
+     * once its own frame is gone.
+     */
+    private Object tailCall(Expr.Call expr) {
+        try {
+            Object callee = evaluate(expr.callee);
+
+            Object[] arguments = new Object[expr.arguments.size()];
+            for (int i = 0; i < arguments.length; i++)
+                arguments[i] = evaluate(expr.arguments.get(i));
+
+            LoxCallable function = cache(expr).check(callee, expr.paren, arguments.length);
+            InlineCache<Expr> inlining = inlineCache(expr);
+            Expr body = inlining.body(function);
+            if (body != null)
+                return inline(body, inlining.function().frame(inlining.receiver(null), arguments));
+            if (function instanceof LoxFunction loxFunction)
+                return loxFunction.tailCall(arguments);
+            return function.call(this, arguments);
+        } catch (StackOverflowError error) {
+            throw stackOverflow(expr.paren);
+        }
+    }
+
+    /**
+     * Evaluates the body of a function inlined at a call, in the frame the call would have run it in.
+     */
+    private Object inline(Expr body, Environment frame) {
+        Environment previous = this.environment;
+        try {
+            this.environment = frame;
+            return evaluate(body);
+        } finally {
+            this.environment = previous;
+        }
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Object visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null)
             value = evaluate(stmt.initializer);
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        environment.define(stmt.name.lexeme, stmt.slot, value);
+        return COMPLETED;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+    public Object visitWhileStmt(Stmt.While stmt) {
+        // A loop in a function moves to faster code with the rest of the function. Only loops outside functions are
+        // compiled on their own.
+        Tiering.Loop loop = null;
+        if (tiering != null && profile == null)
+            loop = tiering.loop(stmt);
+
+        while (loop == null || !loop.isCompiled()) {
+            if (!isTruthy(evaluate(stmt.condition)))
+                return COMPLETED;
+
+            Object result = execute(stmt.body);
+            if (result != COMPLETED)
+                return result;
+            if (profile != null)
+                profile.backEdge();
+            if (loop != null)
+                loop.backEdge();
         }
-        return null;
+
+        // The loop got hot, either just now or in an earlier run. The compiled code picks up from the condition.
+        return loop.run(environment);
     }
 }
@@ -0,0 +1,687 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles a resolved program to a hidden JVM class, with one static method for the script and one for every function
+ * and method in it. Each method takes the Environment of the call and returns the function's result, so a return is
+ * just a return.
+ * <p>
+ * Scopes stay in Environments, which keeps closures and the other engines working unchanged; the JVM locals only hold
+ * the Environment of each enclosing block. Operations with behavior that depends on the values, like calls and
+ * property access, are invokedynamic instructions linked by JvmRuntime.
+ * <p>
+ * Arithmetic and comparisons work on unboxed doubles. Operands that are certainly numbers, like literals and the
+ * results of other arithmetic, are left unboxed on the stack; the rest are checked and unboxed once every operand has
+ * been evaluated, as the other engines check them. Numbers are boxed only when they leave arithmetic, and assigning
+ * one to a local stores it unboxed, like the node engine does.
+ */
+class JvmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final String CLASS_NAME = "LoxCode";
+    private static final String ENVIRONMENT = "Environment";
+    private static final String RUNTIME = "JvmRuntime";
+    private static final String INTERPRETER = "Interpreter";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String BODY = "(LEnvironment;)Ljava/lang/Object;";
+    private static final String UNARY = "(Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String BOOTSTRAP = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;" +
+            "Ljava/lang/invoke/MethodType;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;";
+
+    // What the other engines report when an operator gets something it can't use.
+    private static final String NUMBER_OPERAND = "Operand must be a number.";
+    private static final String NUMBER_OPERANDS = "Operands must be numbers.";
+    private static final String ADD_OPERANDS = "Operands must be two numbers or two strings.";
+
+    /**
+     * Call sites pass the callee and arguments as separate parameters, and a JVM method can only have 255.
+     */
+    private static final int MAX_CALL_ARGUMENTS = 254;
+
+    private final ClassFileWriter classFile = new ClassFileWriter(CLASS_NAME);
+    private final int bootstrap = classFile.staticHandle(RUNTIME, "bootstrap", BOOTSTRAP);
+    /**
+     * Objects the generated code refers to by index, like tokens for error messages. The Interpreter is always first.
+     */
+    private final List<Object> data = new ArrayList<>();
+    private int methodCount = 0;
+
+    private ClassFileWriter.Code code;
+    /**
+     * The JVM local holding the innermost Environment.
+     */
+    private int frame;
+    /**
+     * Whether the method is a loop taken over from a function that's being walked. It returns like the loop statement
+     * would have executed, with Interpreter.COMPLETED unless a return statement in it returned.
+     */
+    private boolean isLoop = false;
+
+    JvmCompiler(Interpreter interpreter) {
+        data.add(interpreter);
+    }
+
+    /**
+     * Compiles statements that run in the global environment, returning a handle that runs them. Returns null when
+     * the program is too large for a class file, so the caller can run it some other way.
+     */
+    MethodHandle compile(List<Stmt> statements) {
+        try {
+            return define(method("script", statements));
+        } catch (ClassFileWriter.TooLarge e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compiles one function's body, for a function that's already running in another engine. The handle takes the
+     * Environment of a call, with the parameters already defined. Returns null if the body is too large.
+     */
+    MethodHandle compile(Stmt.Function function) {
+        try {
+            return define(method(function.name.lexeme, function.body));
+        } catch (ClassFileWriter.TooLarge e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compiles a loop that's already running, so that it can carry on in the compiled code. The handle takes the
+     * Environment the loop runs in, and returns once it's done.
+     */
+    MethodHandle compile(Stmt.While loop) {
+        try {
+            return define(method("loop", List.of(loop), true));
+        } catch (ClassFileWriter.TooLarge e) {
+            return null;
+        }
+    }
+
+    private MethodHandle define(String method) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClassWithClassData(classFile.toByteArray(), List.copyOf(data), true);
+            return lookup.findStatic(lookup.lookupClass(), method, MethodType.methodType(Object.class,
+                    Environment.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compiles a body to a new method, returning its name.
+     */
+    private String method(String name, List<Stmt> body) {
+        return method(name, body, false);
+    }
+
+    private String method(String name, List<Stmt> body, boolean isLoop) {
+        ClassFileWriter.Code enclosingCode = code;
+        int enclosingFrame = frame;
+        boolean enclosingIsLoop = this.isLoop;
+
+        String methodName = name + "$" + methodCount++;
+        code = classFile.method(methodName, BODY);
+        frame = 0;
+        this.isLoop = isLoop;
+
+        for (Stmt statement : body)
+            compile(statement);
+
+        if (code.isReachable()) {
+            if (isLoop)
+                code.getstatic("Interpreter", "COMPLETED", OBJECT);
+            else
+                code.aconstNull();
+            code.areturn();
+        }
+
+        code = enclosingCode;
+        frame = enclosingFrame;
+        this.isLoop = enclosingIsLoop;
+        return methodName;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+        code.generalizeTop();
+    }
+
+    /**
+     * Adds an object to the class data, returning the constant that indexes it.
+     */
+    private int data(Object value) {
+        data.add(value);
+        return classFile.integer(data.size() - 1);
+    }
+
+    private void dynamic(String name, String descriptor, int... arguments) {
+        code.invokedynamic(classFile.bootstrapMethod(bootstrap, arguments), name, descriptor);
+    }
+
+    private void isTruthy() {
+        code.invokestatic(INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+    }
+
+    private void read(Token name, int depth, int slot, int upvalue, boolean boxed) {
+        if (upvalue >= 0) {
+            code.aload(frame);
+            code.pushInt(upvalue);
+            code.invokevirtual(ENVIRONMENT, boxed ? "getUpvalueCell" : "getUpvalue", "(I)" + OBJECT);
+        } else if (depth >= 0 && boxed) {
+            code.aload(frame);
+            code.pushInt(depth);
+            code.pushInt(slot);
+            code.invokevirtual(ENVIRONMENT, "getCellAt", "(II)" + OBJECT);
+        } else if (depth == 0) {
+            code.aload(frame);
+            code.pushInt(slot);
+            code.invokevirtual(ENVIRONMENT, "get", "(I)" + OBJECT);
+        } else if (depth > 0) {
+            code.aload(frame);
+            code.pushInt(depth);
+            code.pushInt(slot);
+            code.invokevirtual(ENVIRONMENT, "getAt", "(II)" + OBJECT);
+        } else {
+            dynamic("getGlobal", "()" + OBJECT, data(name), classFile.integer(slot));
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (expr.upvalue >= 0) {
+            compile(expr.value);
+            code.aload(frame);
+            code.pushInt(expr.upvalue);
+            code.invokestatic(RUNTIME, "assignUpvalue", "(" + OBJECT + "LEnvironment;I)" + OBJECT);
+        } else if (expr.depth >= 0 && expr.boxed) {
+            compile(expr.value);
+            code.aload(frame);
+            code.pushInt(expr.depth);
+            code.pushInt(expr.slot);
+            code.invokestatic(RUNTIME, "assignCellAt", "(" + OBJECT + "LEnvironment;II)" + OBJECT);
+        } else if (expr.depth == 0) {
+            code.aload(frame);
+            code.getfield(ENVIRONMENT, "values", "[Ljava/lang/Object;");
+            code.pushInt(expr.slot);
+            compile(expr.value);
+            code.dupX2();
+            code.aastore();
+        } else if (expr.depth > 0) {
+            compile(expr.value);
+            code.aload(frame);
+            code.pushInt(expr.depth);
+            code.pushInt(expr.slot);
+            code.invokestatic(RUNTIME, "assignAt", "(" + OBJECT + "LEnvironment;II)" + OBJECT);
+        } else {
+            compile(expr.value);
+            dynamic("setGlobal", UNARY, data(expr.name), classFile.integer(expr.slot));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        if (isNumber(expr)) {
+            number(expr);
+            code.invokestatic(DOUBLE, "valueOf", "(D)L" + DOUBLE + ";");
+            return null;
+        }
+
+        switch (expr.operator.type) {
+            case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> {
+                operands(expr, NUMBER_OPERANDS);
+                String comparison = switch (expr.operator.type) {
+                    case GREATER -> "isGreater";
+                    case GREATER_EQUAL -> "isGreaterEqual";
+                    case LESS -> "isLess";
+                    default -> "isLessEqual";
+                };
+                code.invokestatic(RUNTIME, comparison, "(DD)" + OBJECT);
+            }
+            // Equality never fails, so there's no token to bind.
+            case EQUAL_EQUAL, BANG_EQUAL -> {
+                compile(expr.left);
+                compile(expr.right);
+                code.invokestatic(RUNTIME, expr.operator.type == TokenType.EQUAL_EQUAL ? "equal" : "notEqual",
+                        BINARY);
+            }
+            // Neither operand is certainly a number, so this could be concatenation.
+            case PLUS -> {
+                compile(expr.left);
+                compile(expr.right);
+                dynamic("add", BINARY, data(expr.operator));
+            }
+            default -> throw new IllegalArgumentException("Not a binary operator: " + expr.operator.type);
+        }
+        return null;
+    }
+
+    /**
+     * Whether an expression is a number whenever it evaluates at all: number literals and the results of arithmetic.
+     * A '+' with a number on either side can't concatenate, so it's arithmetic too.
+     */
+    private static boolean isNumber(Expr expr) {
+        return switch (expr) {
+            case Expr.Literal literal -> literal.value instanceof Double;
+            case Expr.Grouping grouping -> isNumber(grouping.expression);
+            case Expr.Unary unary -> unary.operator.type == TokenType.MINUS;
+            case Expr.Binary binary -> switch (binary.operator.type) {
+                case MINUS, STAR, SLASH -> true;
+                case PLUS -> isNumber(binary.left) || isNumber(binary.right);
+                default -> false;
+            };
+            default -> false;
+        };
+    }
+
+    /**
+     * Compiles an expression that isNumber() to leave its value unboxed on the stack.
+     */
+    private void number(Expr expr) {
+        switch (expr) {
+            case Expr.Literal literal -> code.ldcDouble((Double) literal.value);
+            case Expr.Grouping grouping -> number(grouping.expression);
+            case Expr.Unary unary -> {
+                operand(unary.right, unary.operator, NUMBER_OPERAND);
+                code.dneg();
+            }
+            case Expr.Binary binary -> {
+                operands(binary, binary.operator.type == TokenType.PLUS ? ADD_OPERANDS : NUMBER_OPERANDS);
+                switch (binary.operator.type) {
+                    case PLUS -> code.dadd();
+                    case MINUS -> code.dsub();
+                    case STAR -> code.dmul();
+                    default -> code.ddiv();
+                }
+            }
+            default -> throw new IllegalArgumentException("Not a number: " + expr);
+        }
+    }
+
+    /**
+     * Compiles the operands of a binary operator that needs numbers, leaving both unboxed. Like in the other engines,
+     * neither is checked until both have been evaluated.
+     */
+    private void operands(Expr.Binary expr, String message) {
+        // A local read can't fail or be changed by an operand that can't fail either, so it can be checked early.
+        boolean leftUnboxed = isNumber(expr.left) || (isLocal(expr.left) && cannotFail(expr.right));
+        if (leftUnboxed)
+            operand(expr.left, expr.operator, message);
+        else
+            compile(expr.left);
+
+        operand(expr.right, expr.operator, message);
+
+        if (!leftUnboxed) {
+            // Bring the left operand up from under the right one to check it, then put them back in order.
+            code.dup2X1();
+            code.pop2();
+            dynamic("operand", "(" + OBJECT + ")D", data(expr.operator), classFile.string(message));
+            code.dup2X2();
+            code.pop2();
+        }
+    }
+
+    /**
+     * Compiles an operand of an operator that needs numbers, checking it right away and leaving it unboxed.
+     */
+    private void operand(Expr expr, Token operator, String message) {
+        if (isNumber(expr)) {
+            number(expr);
+        } else if (isLocal(expr)) {
+            // The slot may hold the number unboxed already.
+            Expr.Variable variable = (Expr.Variable) unwrap(expr);
+            environment(variable.depth);
+            code.pushInt(variable.slot);
+            dynamic("localOperand", "(LEnvironment;I)D", data(operator), classFile.string(message));
+        } else {
+            compile(expr);
+            dynamic("operand", "(" + OBJECT + ")D", data(operator), classFile.string(message));
+        }
+    }
+
+    private static Expr unwrap(Expr expr) {
+        while (expr instanceof Expr.Grouping grouping)
+            expr = grouping.expression;
+        return expr;
+    }
+
+    /**
+     * Whether an expression reads a local variable that isn't in a Cell, where a number may be kept unboxed.
+     */
+    private static boolean isLocal(Expr expr) {
+        return unwrap(expr) instanceof Expr.Variable variable && variable.upvalue < 0 && variable.depth >= 0 &&
+                !variable.boxed;
+    }
+
+    /**
+     * Whether evaluating an expression can neither fail nor change anything: literals and reads of anything but
+     * globals, which might not be defined.
+     */
+    private static boolean cannotFail(Expr expr) {
+        return switch (unwrap(expr)) {
+            case Expr.Literal literal -> true;
+            case Expr.Variable variable -> variable.upvalue >= 0 || variable.depth >= 0;
+            case Expr.This self -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Loads the Environment the given number of scopes out from the innermost one.
+     */
+    private void environment(int depth) {
+        code.aload(frame);
+        if (depth > 0) {
+            code.pushInt(depth);
+            code.invokevirtual(ENVIRONMENT, "ancestor", "(I)LEnvironment;");
+        }
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.arguments.size() > MAX_CALL_ARGUMENTS)
+            throw new ClassFileWriter.TooLarge("Too many arguments for a call site.");
+
+        // A method call keeps the object on the stack under the method it found, so it can be called with the
+        // object as 'this' once the arguments are in. The object takes one more parameter slot.
+        if (expr.callee instanceof Expr.Get get && expr.arguments.size() < MAX_CALL_ARGUMENTS) {
+            compile(get.object);
+            code.dup();
+            dynamic("callee", UNARY, data(get.name));
+            for (Expr argument : expr.arguments)
+                compile(argument);
+
+            dynamic("invokeMethod", "(" + OBJECT.repeat(expr.arguments.size() + 2) + ")" + OBJECT,
+                    data(expr.paren), data(get.name));
+            return null;
+        }
+
+        compile(expr.callee);
+        for (Expr argument : expr.arguments)
+            compile(argument);
+
+        dynamic("call", "(" + OBJECT.repeat(expr.arguments.size() + 1) + ")" + OBJECT, data(expr.paren));
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        dynamic("get", UNARY, data(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null)
+            code.aconstNull();
+        else if (expr.value instanceof Boolean value)
+            code.getstatic("java/lang/Boolean", value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        else if (expr.value instanceof Double value)
+            // A constant call site, so the number is boxed once instead of every time it's used.
+            dynamic("number", "()" + OBJECT, classFile.doubleConstant(value));
+        else
+            code.ldcString((String) expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+
+        compile(expr.left);
+        code.dup();
+        isTruthy();
+        if (expr.operator.type == TokenType.OR)
+            code.ifne(end);
+        else
+            code.ifeq(end);
+
+        code.pop1();
+        compile(expr.right);
+        code.bind(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        dynamic("fieldTarget", UNARY, data(expr.name));
+        compile(expr.value);
+        dynamic("set", BINARY, data(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        read(expr.keyword, expr.depth, expr.slot, expr.upvalue, expr.boxed);
+        compile(expr.receiver);
+        dynamic("superMethod", BINARY, data(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        read(expr.keyword, expr.depth, expr.slot, expr.upvalue, expr.boxed);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS) {
+            number(expr);
+            code.invokestatic(DOUBLE, "valueOf", "(D)L" + DOUBLE + ";");
+            return null;
+        }
+
+        compile(expr.right);
+        code.invokestatic(RUNTIME, "not", UNARY);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        read(expr.name, expr.depth, expr.slot, expr.upvalue, expr.boxed);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.slotCount == 0) {
+            // The Resolver merged the block into the enclosing scope.
+            for (Stmt statement : stmt.statements)
+                compile(statement);
+            return null;
+        }
+
+        if (stmt.cells == null) {
+            code.newObject(ENVIRONMENT);
+            code.dup();
+            code.aload(frame);
+            code.pushInt(stmt.slotCount);
+            code.invokespecial(ENVIRONMENT, "<init>", "(LEnvironment;I)V");
+        } else {
+            // Scopes with cells in them are created with the block's mask of which slots need one.
+            code.aload(frame);
+            dynamic("block", "(LEnvironment;)LEnvironment;", data(stmt));
+        }
+        code.astore(frame + 1);
+
+        frame++;
+        for (Stmt statement : stmt.statements)
+            compile(statement);
+        frame--;
+
+        code.dropLocals(frame + 1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        int[] arguments = new int[stmt.methods.size() + 1];
+        arguments[0] = data(stmt);
+        for (int i = 0; i < stmt.methods.size(); i++) {
+            Stmt.Function method = stmt.methods.get(i);
+            String name = method(method.name.lexeme, method.body);
+            arguments[i + 1] = classFile.staticHandle(CLASS_NAME, name, BODY);
+        }
+
+        code.aload(frame);
+        if (stmt.superclass != null)
+            compile(stmt.superclass);
+        else
+            code.aconstNull();
+
+        dynamic("defineClass", "(LEnvironment;" + OBJECT + ")V", arguments);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign assign && storeUnboxed(assign))
+            return null;
+
+        compile(stmt.expression);
+        code.pop1();
+        return null;
+    }
+
+    /**
+     * Compiles an assignment to a local whose value isn't used, if it can store a number without boxing it: one from
+     * arithmetic, or a copy of another local, which may hold one unboxed. Returns false, having compiled nothing, if it
+     * can't.
+     */
+    private boolean storeUnboxed(Expr.Assign expr) {
+        if (expr.upvalue >= 0 || expr.depth < 0 || expr.boxed)
+            return false;
+
+        if (isNumber(expr.value)) {
+            environment(expr.depth);
+            code.pushInt(expr.slot);
+            number(expr.value);
+            code.invokevirtual(ENVIRONMENT, "setDouble", "(ID)V");
+            return true;
+        }
+
+        if (isLocal(expr.value)) {
+            Expr.Variable variable = (Expr.Variable) unwrap(expr.value);
+            environment(expr.depth);
+            environment(variable.depth);
+            code.pushInt(variable.slot);
+            code.pushInt(expr.slot);
+            code.invokevirtual(ENVIRONMENT, "copy", "(LEnvironment;II)V");
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        String name = method(stmt.name.lexeme, stmt.body);
+
+        code.aload(frame);
+        dynamic("defineFunction", "(LEnvironment;)V", data(stmt), classFile.staticHandle(CLASS_NAME, name, BODY));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassFileWriter.Label elseBranch = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+
+        compile(stmt.condition);
+        isTruthy();
+        code.ifeq(elseBranch);
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            code.bind(elseBranch);
+            return null;
+        }
+
+        if (code.isReachable())
+            code.goTo(end);
+        code.bind(elseBranch);
+        compile(stmt.elseBranch);
+        code.bind(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        code.invokestatic(RUNTIME, "print", "(" + OBJECT + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value instanceof Expr.Call call && call.arguments.size() <= MAX_CALL_ARGUMENTS)
+            tailCall(call);
+        else if (stmt.value != null)
+            compile(stmt.value);
+        else
+            code.aconstNull();
+
+        code.areturn();
+        return null;
+    }
+
+    /**
+     * Compiles a call in tail position. Calls to Lox functions are only set up, and returned for the function that
+     * made the call to run once its frame is gone.
+     */
+    private void tailCall(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments)
+            compile(argument);
+
+        dynamic("tailCall", "(" + OBJECT.repeat(expr.arguments.size() + 1) + ")" + OBJECT, data(expr.paren));
+        code.generalizeTop();
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        code.aload(frame);
+        code.ldcString(stmt.name.lexeme);
+        code.pushInt(stmt.slot);
+        if (stmt.initializer != null)
+            compile(stmt.initializer);
+        else
+            code.aconstNull();
+
+        code.invokevirtual(ENVIRONMENT, "define", "(Ljava/lang/String;I" + OBJECT + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        ClassFileWriter.Label start = new ClassFileWriter.Label();
+        ClassFileWriter.Label exit = new ClassFileWriter.Label();
+
+        code.bind(start);
+        compile(stmt.condition);
+        isTruthy();
+        code.ifeq(exit);
+        compile(stmt.body);
+        code.goTo(start);
+        code.bind(exit);
+        return null;
+    }
+}
@@ -0,0 +1,379 @@
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything classes from the JvmCompiler call into: the bootstrap method that links their invokedynamic
+ * instructions, and the operations it links them to.
+ * <p>
+ * Call sites only take the operand values. The token for error reporting, or whatever else an operation needs, is
+ * found in the class data at link time and bound into the call site, so HotSpot sees a constant target it can inline.
+ */
+final class JvmRuntime {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private JvmRuntime() {
+    }
+
+    /**
+     * Links an invokedynamic instruction. The first static argument is the index of its token (or declaration) in
+     * the class data, except for number literals, where it's the number. Globals have their index as the second, and
+     * operand checks the message they fail with.
+     */
+    static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type, Object... arguments)
+            throws ReflectiveOperationException {
+        Interpreter interpreter = MethodHandles.classDataAt(caller, "_", Interpreter.class, 0);
+
+        if (name.equals("number"))
+            return new ConstantCallSite(MethodHandles.constant(Object.class, arguments[0]));
+
+        Object data = MethodHandles.classDataAt(caller, "_", Object.class, (Integer) arguments[0]);
+        MethodHandle target = switch (name) {
+            case "getGlobal", "setGlobal" -> MethodHandles.insertArguments(helper(name), 0, interpreter.globals, data,
+                    arguments[1]);
+            case "operand", "localOperand" -> MethodHandles.insertArguments(helper(name), 0, data, arguments[1]);
+            case "tailCall" -> catchStackOverflow(MethodHandles.insertArguments(helper(name), 0, interpreter, data,
+                    new CalleeCache()).asCollector(Object[].class, type.parameterCount() - 1), data);
+            case "call" -> catchStackOverflow(byArity(name, type.parameterCount() - 1, interpreter, data,
+                    new CalleeCache()), data);
+            case "invokeMethod" -> catchStackOverflow(byArity(name, type.parameterCount() - 2, interpreter, data,
+                    MethodHandles.classDataAt(caller, "_", Token.class, (Integer) arguments[1]), new CalleeCache()),
+                    data);
+            case "get", "set", "callee" -> MethodHandles.insertArguments(helper(name), 0, data, new PropertyCache());
+            case "defineClass" -> {
+                MethodHandle[] bodies = new MethodHandle[arguments.length - 1];
+                for (int i = 0; i < bodies.length; i++)
+                    bodies[i] = (MethodHandle) arguments[i + 1];
+                yield MethodHandles.insertArguments(helper(name), 0, data, bodies, profiles(interpreter,
+                        ((Stmt.Class) data).methods, bodies));
+            }
+            case "defineFunction" -> {
+                Tiering.Profile[] profiles = profiles(interpreter, List.of((Stmt.Function) data),
+                        (MethodHandle) arguments[1]);
+                yield MethodHandles.insertArguments(helper(name), 0, data, arguments[1],
+                        profiles == null ? null : profiles[0]);
+            }
+            default -> MethodHandles.insertArguments(helper(name), 0, data);
+        };
+
+        return new ConstantCallSite(target.asType(type));
+    }
+
+    /**
+     * When tiering, hands the compiled bodies over to the functions' profiles, which the new functions then use.
+     */
+    private static Tiering.Profile[] profiles(Interpreter interpreter, List<Stmt.Function> functions,
+                                              MethodHandle... bodies) {
+        if (interpreter.tiering == null)
+            return null;
+
+        Tiering.Profile[] profiles = new Tiering.Profile[bodies.length];
+        for (int i = 0; i < bodies.length; i++) {
+            profiles[i] = interpreter.tiering.profile(functions.get(i));
+            profiles[i].compiled(bodies[i]);
+        }
+        return profiles;
+    }
+
+    /**
+     * Links a call to the helper for its number of arguments, or, past four, to the one that takes them in an array.
+     */
+    private static MethodHandle byArity(String name, int argumentCount, Object... values)
+            throws ReflectiveOperationException {
+        if (argumentCount <= 4)
+            return MethodHandles.insertArguments(helper(name + argumentCount), 0, values);
+
+        return MethodHandles.insertArguments(helper(name), 0, values).asCollector(Object[].class, argumentCount);
+    }
+
+    /**
+     * Reports a StackOverflowError thrown by a call at its paren, like the call sites of the other engines.
+     */
+    private static MethodHandle catchStackOverflow(MethodHandle call, Object paren)
+            throws ReflectiveOperationException {
+        MethodHandle handler = MethodHandles.insertArguments(helper("stackOverflow"), 0, paren);
+        return MethodHandles.catchException(call, StackOverflowError.class, handler);
+    }
+
+    private static MethodHandle helper(String name) throws ReflectiveOperationException {
+        for (var method : JvmRuntime.class.getDeclaredMethods()) {
+            if (method.getName().equals(name))
+                return LOOKUP.unreflect(method);
+        }
+
+        throw new NoSuchMethodException(name);
+    }
+
+    /**
+     * Runs a compiled body. The generated code never throws checked exceptions, whatever invokeExact declares.
+     */
+    static Object invoke(MethodHandle code, Environment frame) {
+        try {
+            return (Object) code.invokeExact(frame);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Linked through invokedynamic.
+
+    static Object getGlobal(Globals globals, Token name, int index) {
+        return globals.get(index, name);
+    }
+
+    static Object setGlobal(Globals globals, Token name, int index, Object value) {
+        globals.assign(index, name, value);
+        return value;
+    }
+
+    static Object add(Token operator, Object left, Object right) {
+        return ExprNode.AddGeneric.add(operator, left, right);
+    }
+
+    /**
+     * Unboxes an operand of an operator that needs a number, once all its operands have been evaluated.
+     */
+    static double operand(Token operator, String message, Object value) {
+        if (value instanceof Double number)
+            return number;
+        throw new RuntimeError(operator, message);
+    }
+
+    /**
+     * Reads a local operand, which may be kept unboxed, as a number.
+     */
+    static double localOperand(Token operator, String message, Environment frame, int slot) {
+        Object value = frame.values[slot];
+        if (value == Environment.UNBOXED)
+            return frame.doubles[slot];
+        return operand(operator, message, value);
+    }
+
+    // Called directly with operands that have already been checked and unboxed.
+
+    static Object isGreater(double left, double right) {
+        return left > right;
+    }
+
+    static Object isGreaterEqual(double left, double right) {
+        return left >= right;
+    }
+
+    static Object isLess(double left, double right) {
+        return left < right;
+    }
+
+    static Object isLessEqual(double left, double right) {
+        return left <= right;
+    }
+
+    static Object call(Interpreter interpreter, Token paren, CalleeCache cache, Object callee, Object[] arguments) {
+        return cache.check(callee, paren, arguments.length).call(interpreter, arguments);
+    }
+
+    static Object call0(Interpreter interpreter, Token paren, CalleeCache cache, Object callee) {
+        return cache.check(callee, paren, 0).call0(interpreter);
+    }
+
+    static Object call1(Interpreter interpreter, Token paren, CalleeCache cache, Object callee, Object a) {
+        return cache.check(callee, paren, 1).call1(interpreter, a);
+    }
+
+    static Object call2(Interpreter interpreter, Token paren, CalleeCache cache, Object callee, Object a, Object b) {
+        return cache.check(callee, paren, 2).call2(interpreter, a, b);
+    }
+
+    static Object call3(Interpreter interpreter, Token paren, CalleeCache cache, Object callee, Object a, Object b,
+                        Object c) {
+        return cache.check(callee, paren, 3).call3(interpreter, a, b, c);
+    }
+
+    static Object call4(Interpreter interpreter, Token paren, CalleeCache cache, Object callee, Object a, Object b,
+                        Object c, Object d) {
+        return cache.check(callee, paren, 4).call4(interpreter, a, b, c, d);
+    }
+
+    static Object stackOverflow(Token paren, StackOverflowError error) {
+        throw Interpreter.stackOverflow(paren);
+    }
+
+    static Object tailCall(Interpreter interpreter, Token paren, CalleeCache cache, Object callee,
+                           Object[] arguments) {
+        LoxCallable function = cache.check(callee, paren, arguments.length);
+        if (function instanceof LoxFunction loxFunction)
+            return loxFunction.tailCall(arguments);
+        return function.call(interpreter, arguments);
+    }
+
+    /**
+     * Finds what a method call calls, before its arguments are evaluated: the method, unbound, or else the value of
+     * the property.
+     */
+    static Object callee(Token name, PropertyCache cache, Object object) {
+        if (!(object instanceof LoxInstance instance))
+            throw new RuntimeError(name, "Only instances have properties.");
+
+        LoxFunction method = instance.method(name, cache);
+        return method != null ? method : instance.get(name, cache);
+    }
+
+    // The invokeMethod helpers call what callee() found, with the object as 'this' if it was a method.
+
+    static Object invokeMethod(Interpreter interpreter, Token paren, Token name, CalleeCache cache, Object object,
+                               Object callee, Object[] arguments) {
+        LoxCallable function = cache.check(callee, paren, arguments.length);
+        if (((LoxInstance) object).isMethod(name, callee))
+            return ((LoxFunction) callee).callMethod(interpreter, (LoxInstance) object, arguments);
+        return function.call(interpreter, arguments);
+    }
+
+    static Object invokeMethod0(Interpreter interpreter, Token paren, Token name, CalleeCache cache, Object object,
+                                Object callee) {
+        LoxCallable function = cache.check(callee, paren, 0);
+        if (((LoxInstance) object).isMethod(name, callee))
+            return ((LoxFunction) callee).callMethod0(interpreter, (LoxInstance) object);
+        return function.call0(interpreter);
+    }
+
+    static Object invokeMethod1(Interpreter interpreter, Token paren, Token name, CalleeCache cache, Object object,
+                                Object callee, Object a) {
+        LoxCallable function = cache.check(callee, paren, 1);
+        if (((LoxInstance) object).isMethod(name, callee))
+            return ((LoxFunction) callee).callMethod1(interpreter, (LoxInstance) object, a);
+        return function.call1(interpreter, a);
+    }
+
+    static Object invokeMethod2(Interpreter interpreter, Token paren, Token name, CalleeCache cache, Object object,
+                                Object callee, Object a, Object b) {
+        LoxCallable function = cache.check(callee, paren, 2);
+        if (((LoxInstance) object).isMethod(name, callee))
+            return ((LoxFunction) callee).callMethod2(interpreter, (LoxInstance) object, a, b);
+        return function.call2(interpreter, a, b);
+    }
+
+    static Object invokeMethod3(Interpreter interpreter, Token paren, Token name, CalleeCache cache, Object object,
+                                Object callee, Object a, Object b, Object c) {
+        LoxCallable function = cache.check(callee, paren, 3);
+        if (((LoxInstance) object).isMethod(name, callee))
+            return ((LoxFunction) callee).callMethod3(interpreter, (LoxInstance) object, a, b, c);
+        return function.call3(interpreter, a, b, c);
+    }
+
+    static Object invokeMethod4(Interpreter interpreter, Token paren, Token name, CalleeCache cache, Object object,
+                                Object callee, Object a, Object b, Object c, Object d) {
+        LoxCallable function = cache.check(callee, paren, 4);
+        if (((LoxInstance) object).isMethod(name, callee))
+            return ((LoxFunction) callee).callMethod4(interpreter, (LoxInstance) object, a, b, c, d);
+        return function.call4(interpreter, a, b, c, d);
+    }
+
+    static Object get(Token name, PropertyCache cache, Object object) {
+        if (object instanceof LoxInstance instance)
+            return instance.get(name, cache);
+
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    /**
+     * Checks the object of a set expression before its value is evaluated, like the other engines do.
+     */
+    static Object fieldTarget(Token name, Object object) {
+        if (!(object instanceof LoxInstance))
+            throw new RuntimeError(name, "Only instances have fields.");
+        return object;
+    }
+
+    static Object set(Token name, PropertyCache cache, Object object, Object value) {
+        return ((LoxInstance) object).set(name, value, cache);
+    }
+
+    static Object superMethod(Token method, Object superclass, Object object) {
+        LoxFunction function = ((LoxClass) superclass).findMethod(method.lexeme);
+
+        if (function == null)
+            throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+
+        return function.bind((LoxInstance) object);
+    }
+
+    static Environment block(Stmt.Block block, Environment frame) {
+        return new Environment(frame, block.slotCount, block.cells);
+    }
+
+    static void defineFunction(Stmt.Function declaration, MethodHandle body, Tiering.Profile profile,
+                               Environment frame) {
+        LoxFunction function;
+        if (profile != null)
+            function = new LoxFunction(declaration, frame, false, profile);
+        else
+            function = new LoxFunction(declaration, frame, false, body);
+
+        frame.define(declaration.name.lexeme, declaration.slot, function);
+    }
+
+    static void defineClass(Stmt.Class declaration, MethodHandle[] bodies, Tiering.Profile[] profiles,
+                            Environment frame, Object superclass) {
+        if (declaration.superclass != null && !(superclass instanceof LoxClass))
+            throw new RuntimeError(declaration.superclass.name, "Superclass must be a class.");
+
+        Environment environment = frame;
+        if (declaration.superclass != null) {
+            environment = new Environment(frame, 1);
+            environment.define("super", 0, superclass);
+        }
+
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for (int i = 0; i < bodies.length; i++) {
+            Stmt.Function method = declaration.methods.get(i);
+            boolean isInitializer = method.name.lexeme.equals("init");
+            LoxFunction function;
+            if (profiles != null)
+                function = new LoxFunction(method, environment, isInitializer, profiles[i]);
+            else
+                function = new LoxFunction(method, environment, isInitializer, bodies[i]);
+            methods.put(method.name.lexeme, function);
+        }
+
+        frame.define(declaration.name.lexeme, declaration.slot, new LoxClass(declaration.name.lexeme, (LoxClass) superclass, methods));
+    }
+
+    // Called directly.
+
+    static Object assignAt(Object value, Environment frame, int depth, int slot) {
+        frame.assignAt(depth, slot, value);
+        return value;
+    }
+
+    static Object assignCellAt(Object value, Environment frame, int depth, int slot) {
+        frame.assignCellAt(depth, slot, value);
+        return value;
+    }
+
+    static Object assignUpvalue(Object value, Environment frame, int index) {
+        frame.assignUpvalue(index, value);
+        return value;
+    }
+
+    static Object equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object not(Object value) {
+        return !Interpreter.isTruthy(value);
+    }
+
+    static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+}
@@ -1,31 +1,160 @@
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandle;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public class Lox {
+    /**
+     * How resolved programs get run.
+     */
+    enum Engine {
+        /**
+         * Walk the statements with the Interpreter's visitor.
+         */
+        TREE,
+        /**
+         * Compile the statements to self-specializing node trees, then run those.
+         */
+        NODES,
+        /**
+         * Compile the statements to bytecode and run it on the VM. Its call frames live on the heap instead of the
+         * Java stack, so recursion can go as deep as --max-depth allows.
+         */
+        VM,
+        /**
+         * Compile the statements to JVM classes, so that HotSpot compiles the Lox code itself.
+         */
+        JVM,
+        /**
+         * Walk the statements, and compile functions to nodes and then JVM classes as they get hot.
+         */
+        TIERED
+    }
+
     private static final Interpreter interpreter = new Interpreter();
+    private static VM vm;
+
+    private static Engine engine = Engine.TIERED;
+    private static int nodesThreshold = Tiering.DEFAULT_NODES_THRESHOLD;
+    private static int jvmThreshold = Tiering.DEFAULT_JVM_THRESHOLD;
+    private static int loopThreshold = Tiering.DEFAULT_LOOP_THRESHOLD;
+    private static boolean logTiering = false;
+    private static int maxDepth = VM.DEFAULT_MAX_FRAMES;
+    private static boolean dumpAst = false;
+    /**
+     * What scripts and the prompt are read as, whatever the platform's default is.
+     */
+    private static Charset encoding = StandardCharsets.UTF_8;
+    private static boolean parallelParse = false;
 
     private static boolean hadError = false;
     private static boolean hadRuntimeError = false;
+    /**
+     * Where errors go instead of stderr on a thread that's parsing a chunk of a script for the ParallelParser.
+     */
+    private static final ThreadLocal<List<String>> collectedErrors = new ThreadLocal<>();
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String script = null;
+
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                engine = parseEngine(arg.substring("--engine=".length()));
+            } else if (arg.startsWith("--nodes-threshold=")) {
+                nodesThreshold = parsePositive(arg.substring("--nodes-threshold=".length()));
+            } else if (arg.startsWith("--jvm-threshold=")) {
+                jvmThreshold = parsePositive(arg.substring("--jvm-threshold=".length()));
+            } else if (arg.startsWith("--loop-threshold=")) {
+                loopThreshold = parsePositive(arg.substring("--loop-threshold=".length()));
+            } else if (arg.startsWith("--max-depth=")) {
+                maxDepth = parsePositive(arg.substring("--max-depth=".length()));
+            } else if (arg.startsWith("--encoding=")) {
+                encoding = parseEncoding(arg.substring("--encoding=".length()));
+            } else if (arg.equals("--parallel-parse")) {
+                parallelParse = true;
+            } else if (arg.equals("--dump-ast")) {
+                dumpAst = true;
+            } else if (arg.equals("--log-tiering")) {
+                logTiering = true;
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                usage();
+            }
+        }
+
+        vm = new VM(maxDepth);
+        if (engine == Engine.TIERED)
+            interpreter.tiering = new Tiering(interpreter, nodesThreshold, jvmThreshold, loopThreshold, logTiering);
+
+        if (script != null) {
+            runFile(script);
         } else {
             runPrompt();
         }
     }
 
+    private static Engine parseEngine(String name) {
+        for (Engine candidate : Engine.values()) {
+            if (candidate.name().equalsIgnoreCase(name))
+                return candidate;
+        }
+
+        usage();
+        return null;
+    }
+
+    private static Charset parseEncoding(String name) {
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            // Falls through to the usage message.
+        }
+
+        usage();
+        return null;
+    }
+
+    private static int parsePositive(String count) {
+        try {
+            int value = Integer.parseInt(count);
+            if (value > 0)
+                return value;
+        } catch (NumberFormatException e) {
+            // Falls through to the usage message.
+        }
+
+        usage();
+        return 0;
+    }
+
+    private static void usage() {
+        String engines = Arrays.stream(Engine.values())
+                .map(candidate -> candidate.name().toLowerCase())
+                .collect(Collectors.joining("|"));
+        System.out.println("Usage: jlox [--engine=" + engines + "] [--nodes-threshold=<calls>] " +
+                "[--jvm-threshold=<calls>] [--loop-threshold=<iterations>] [--log-tiering] [--max-depth=<calls>] " +
+                "[--dump-ast] [--encoding=<charset>] [--parallel-parse] [script]");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        CharBuffer source = readFile(path);
+        run(source.array(), source.position());
 
         if (hadError)
             System.exit(65);
@@ -33,8 +162,37 @@ public class Lox {
             System.exit(70);
     }
 
+    /**
+     * Maps a script into memory and decodes it straight into the array the Scanner reads, so the file isn't also on
+     * the heap as bytes or as a String. Anything that isn't valid in the encoding is read as the replacement
+     * character.
+     */
+    private static CharBuffer readFile(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("'" + path + "' is too large to run.");
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            CharsetDecoder decoder = encoding.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            // Room for as many chars as the bytes could possibly decode to, which for UTF-8 is one each.
+            CharBuffer chars = CharBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8,
+                    (long) Math.ceil(size * (double) decoder.maxCharsPerByte())));
+
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (result.isUnderflow())
+                result = decoder.flush(chars);
+            if (!result.isUnderflow())
+                result.throwException();
+
+            return chars;
+        }
+    }
+
     private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
+        InputStreamReader input = new InputStreamReader(System.in, encoding);
         BufferedReader reader = new BufferedReader(input);
 
         while (true) {
@@ -44,29 +202,56 @@ public class Lox {
             // Ctrl+D gives reader null
             if (line == null)
                 break;
-            run(line);
+            run(line.toCharArray(), line.length());
 
             hadError = false;
         }
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+    private static void run(char[] source, int length) {
+        List<Stmt> statements;
+        if (parallelParse) {
+            statements = ParallelParser.parse(source, length);
+        } else {
+            // The parser scans the source as it goes.
+            Parser parser = new Parser(new Scanner(source, length).tokens());
+            statements = parser.parse();
+        }
 
         if (hadError)
             return;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver(interpreter.globals);
         resolver.resolve(statements);
 
         if (hadError)
             return;
 
-        interpreter.interpret(statements);
+        if (dumpAst)
+            System.err.print("== before optimizing ==\n" + new AstPrinter().print(statements));
+        statements = new Optimizer(resolver.unassignedReads()).optimize(statements);
+        if (dumpAst)
+            System.err.print("== after optimizing ==\n" + new AstPrinter().print(statements));
+
+        if (engine == Engine.VM) {
+            VM.Function script = new BytecodeCompiler().compile(statements);
+            if (hadError)
+                return;
+
+            vm.interpret(script);
+        } else if (engine == Engine.JVM) {
+            MethodHandle program = new JvmCompiler(interpreter).compile(statements);
+            if (program != null)
+                interpreter.interpret(program);
+            else
+                interpreter.interpret(new NodeCompiler(interpreter).compile(statements));
+        } else if (engine == Engine.NODES) {
+            NodeCompiler compiler = new NodeCompiler(interpreter);
+            interpreter.interpret(compiler.compile(statements));
+        } else {
+            // The tiered engine starts out like the tree-walker. Functions compile themselves when they get hot.
+            interpreter.interpret(statements);
+        }
     }
 
     static void error(int line, String msg) {
@@ -82,12 +267,37 @@ public class Lox {
     }
 
     static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        System.err.println(error.getMessage() + "\n[line " + error.line + "]");
         hadRuntimeError = true;
     }
 
     private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error " + where + ": " + message);
+        report("[line " + line + "] Error " + where + ": " + message);
+    }
+
+    /**
+     * Reports a compile error, unless the thread is collecting them to be reported later.
+     */
+    static void report(String error) {
+        List<String> errors = collectedErrors.get();
+        if (errors != null) {
+            errors.add(error);
+            return;
+        }
+
+        System.err.println(error);
         hadError = true;
     }
+
+    /**
+     * Runs the action, collecting the compile errors it reports on this thread into the list instead.
+     */
+    static <T> T collectingErrors(List<String> errors, Supplier<T> action) {
+        collectedErrors.set(errors);
+        try {
+            return action.get();
+        } finally {
+            collectedErrors.remove();
+        }
+    }
 }
\ No newline at end of file
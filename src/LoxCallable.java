@@ -1,9 +1,32 @@
-import java.util.List;
-
 public interface LoxCallable {
     /**
      * How many arguments this callable takes.
      */
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+
+    /**
+     * Calls with any number of arguments. Call sites checked the count against {@link #arity()} already, and use the
+     * fixed-arity versions below when it's small, so they never have to put the arguments in anything.
+     */
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, new Object[]{a});
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, new Object[]{a, b});
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, new Object[]{a, b, c});
+    }
+
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return call(interpreter, new Object[]{a, b, c, d});
+    }
 }
@@ -1,15 +1,34 @@
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
-    final Map<String, LoxFunction> methods;
+    /**
+     * Every method instances can call, inherited ones included, so finding one never walks the superclass chain.
+     * Classes can't change after they're declared, so this is worked out once.
+     */
+    private final Map<String, LoxFunction> methods;
+    private final LoxFunction initializer;
+    /**
+     * The shape instances start out with, before they have any fields.
+     */
+    final Shape emptyShape = new Shape();
+    /**
+     * How many fields instances have ended up with so far, to size new instances' field arrays.
+     */
+    int instanceSize = 0;
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+
+        Map<String, LoxFunction> flattened = new HashMap<>();
+        if (superclass != null)
+            flattened.putAll(superclass.methods);
+        flattened.putAll(methods);
+        this.methods = Map.copyOf(flattened);
+        this.initializer = this.methods.get("init");
     }
 
     @Override
@@ -19,27 +38,60 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null)
             return 0;
         return initializer.arity();
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null)
+            initializer.callMethod(interpreter, instance, arguments);
+
+        return instance;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null)
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.callMethod0(interpreter, instance);
+
+        return instance;
+    }
 
+    // Only a class with an initializer can take arguments.
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.callMethod1(interpreter, instance, a);
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.callMethod2(interpreter, instance, a, b);
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.callMethod3(interpreter, instance, a, b, c);
+        return instance;
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.callMethod4(interpreter, instance, a, b, c, d);
         return instance;
     }
 
     LoxFunction findMethod(String name) {
-        if (methods.containsKey(name))
-            return methods.get(name);
-        if (superclass != null)
-            return superclass.findMethod(name);
-        return null;
+        return methods.get(name);
     }
 }
@@ -1,14 +1,55 @@
-import java.util.List;
+import java.lang.invoke.MethodHandle;
 
 public class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Stmt.Function declaration;
+    /**
+     * The variables the function captured from where it was declared, rather than the scopes themselves, so they
+     * don't keep anything else alive.
+     */
+    private final Object[] upvalues;
+    final boolean isInitializer;
+    /**
+     * The body compiled by the NodeCompiler, or null when the Interpreter walks the declaration itself.
+     */
+    private final StmtNode body;
+    /**
+     * The body compiled to a JVM method by the JvmCompiler, taking the call's environment and returning its result.
+     */
+    private final MethodHandle code;
+    /**
+     * Under tiered execution, where the body comes from instead of the two fields above.
+     */
+    private final Tiering.Profile profile;
+    /**
+     * The instance a bound method was bound to, or null for functions and for methods that haven't been bound.
+     */
+    final LoxInstance receiver;
 
     LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+        this(declaration, closure.capture(declaration.captures), isInitializer, null, null, null, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, StmtNode body) {
+        this(declaration, closure.capture(declaration.captures), isInitializer, body, null, null, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, MethodHandle code) {
+        this(declaration, closure.capture(declaration.captures), isInitializer, null, code, null, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, Tiering.Profile profile) {
+        this(declaration, closure.capture(declaration.captures), isInitializer, null, null, profile, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Object[] upvalues, boolean isInitializer, StmtNode body,
+                        MethodHandle code, Tiering.Profile profile, LoxInstance receiver) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
         this.isInitializer = isInitializer;
+        this.body = body;
+        this.code = code;
+        this.profile = profile;
+        this.receiver = receiver;
     }
 
     @Override
@@ -17,28 +58,188 @@ public class LoxFunction implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++)
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return callMethod(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return callMethod0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return callMethod1(interpreter, receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return callMethod2(interpreter, receiver, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return callMethod3(interpreter, receiver, a, b, c);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return callMethod4(interpreter, receiver, a, b, c, d);
+    }
+
+    /**
+     * Calls the function with the receiver as 'this', or as a plain function if the receiver is null. Method call
+     * sites come straight here with the instance they found the method on, so the method is never bound. The
+     * numbered versions take that many arguments.
+     */
+    Object callMethod(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        return run(interpreter, frame(receiver, arguments), receiver);
+    }
+
+    Object callMethod0(Interpreter interpreter, LoxInstance receiver) {
+        return run(interpreter, frame0(receiver), receiver);
+    }
+
+    Object callMethod1(Interpreter interpreter, LoxInstance receiver, Object a) {
+        return run(interpreter, frame1(receiver, a), receiver);
+    }
+
+    Object callMethod2(Interpreter interpreter, LoxInstance receiver, Object a, Object b) {
+        return run(interpreter, frame2(receiver, a, b), receiver);
+    }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
+    Object callMethod3(Interpreter interpreter, LoxInstance receiver, Object a, Object b, Object c) {
+        return run(interpreter, frame3(receiver, a, b, c), receiver);
+    }
+
+    Object callMethod4(Interpreter interpreter, LoxInstance receiver, Object a, Object b, Object c, Object d) {
+        return run(interpreter, frame4(receiver, a, b, c, d), receiver);
+    }
+
+    /**
+     * Creates the frame a call runs the body in, holding 'this' if there's a receiver and then the arguments. Calls
+     * that have inlined the body run it in one of these themselves.
+     */
+    Environment frame(LoxInstance receiver, Object[] arguments) {
+        Environment environment = frame0(receiver);
+        for (int i = 0; i < arguments.length; i++)
+            defineParam(environment, receiver, i, arguments[i]);
+        return environment;
+    }
+
+    Environment frame0(LoxInstance receiver) {
+        Environment environment = Environment.frame(upvalues, declaration.slotCount, declaration.cells);
+        if (receiver != null)
+            environment.define("this", 0, receiver);
+        return environment;
+    }
+
+    Environment frame1(LoxInstance receiver, Object a) {
+        Environment environment = frame0(receiver);
+        defineParam(environment, receiver, 0, a);
+        return environment;
+    }
+
+    Environment frame2(LoxInstance receiver, Object a, Object b) {
+        Environment environment = frame1(receiver, a);
+        defineParam(environment, receiver, 1, b);
+        return environment;
+    }
+
+    Environment frame3(LoxInstance receiver, Object a, Object b, Object c) {
+        Environment environment = frame2(receiver, a, b);
+        defineParam(environment, receiver, 2, c);
+        return environment;
+    }
+
+    Environment frame4(LoxInstance receiver, Object a, Object b, Object c, Object d) {
+        Environment environment = frame3(receiver, a, b, c);
+        defineParam(environment, receiver, 3, d);
+        return environment;
+    }
+
+    /**
+     * Defines a parameter in its slot, which comes after 'this' if there's a receiver.
+     */
+    private void defineParam(Environment environment, LoxInstance receiver, int index, Object value) {
+        int slot = receiver == null ? index : index + 1;
+        environment.define(declaration.params.get(index).lexeme, slot, value);
+    }
+
+    /**
+     * Sets up a call in tail position without running it. The body making it returns the TailCall, and the run() it
+     * was called from runs it in its place, so tail calls don't use up any stack.
+     */
+    TailCall tailCall(Object[] arguments) {
+        return tailCallMethod(receiver, arguments);
+    }
+
+    TailCall tailCallMethod(LoxInstance receiver, Object[] arguments) {
+        return new TailCall(this, receiver, frame(receiver, arguments));
+    }
+
+    /**
+     * A call set up by {@link #tailCall}. It's only ever returned from a body, never seen by Lox code.
+     */
+    static final class TailCall {
+        final LoxFunction function;
+        final LoxInstance receiver;
+        final Environment frame;
+
+        private TailCall(LoxFunction function, LoxInstance receiver, Environment frame) {
+            this.function = function;
+            this.receiver = receiver;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * Runs the body in a frame that already holds 'this' and the arguments, followed by any calls it makes in tail
+     * position.
+     */
+    private Object run(Interpreter interpreter, Environment environment, LoxInstance receiver) {
+        Object result = runBody(interpreter, environment, receiver);
+        while (result instanceof TailCall call)
+            result = call.function.runBody(interpreter, call.frame, call.receiver);
+        return result;
+    }
+
+    /**
+     * Runs the body alone, returning what it returned, even if that's a TailCall.
+     */
+    private Object runBody(Interpreter interpreter, Environment environment, LoxInstance receiver) {
+        MethodHandle code = this.code;
+        StmtNode body = this.body;
+        if (profile != null) {
+            if (profile.code == null)
+                profile.called();
+            code = profile.code;
+            body = profile.nodes;
+        }
+
+        if (code != null) {
+            // Compiled code returns its value instead of throwing it.
+            Object result = JvmRuntime.invoke(code, environment);
             if (isInitializer)
-                return closure.getAt(0, "this");
-            return returnValue.value;
+                return receiver;
+            return result;
         }
 
+        Object result;
+        if (body != null)
+            result = body.execute(environment);
+        else
+            result = interpreter.executeFunction(declaration.body, environment, profile);
+
         if (isInitializer)
-            return closure.getAt(0, "this");
-        return null;
+            return receiver;
+        if (result == Interpreter.COMPLETED)
+            return null;
+        return result;
     }
 
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, upvalues, isInitializer, body, code, profile, instance);
     }
 
     @Override
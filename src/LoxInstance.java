@@ -1,12 +1,18 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
+    private static final Object[] NO_FIELDS = {};
+
     private LoxClass loxClass;
-    private final Map<String, Object> fields = new HashMap<>();
+    /**
+     * Where each field is in {@link #fields}. Changes whenever a field is added.
+     */
+    private Shape shape;
+    private Object[] fields = NO_FIELDS;
 
     LoxInstance(LoxClass loxClass) {
         this.loxClass = loxClass;
+        this.shape = loxClass.emptyShape;
     }
 
     @Override
@@ -14,20 +20,83 @@ public class LoxInstance {
         return loxClass.name + " instance";
     }
 
-    Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+    Object get(Token name, PropertyCache cache) {
+        int entry = cache.find(shape);
+        int slot;
+        LoxFunction method;
+        if (entry >= 0) {
+            slot = cache.slot(entry);
+            method = cache.method(entry);
+        } else {
+            slot = shape.slotOf(name.lexeme);
+            method = slot < 0 ? loxClass.findMethod(name.lexeme) : null;
+            cache.add(shape, slot, shape, method);
         }
 
-        LoxFunction method = loxClass.findMethod(name.lexeme);
+        if (slot >= 0)
+            return fields[slot];
+
         if (method != null)
             return method.bind(this);
 
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
-    Object set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    /**
+     * Returns the method a call to the named property would run, unbound, so it can be called with this instance
+     * directly. Returns null if there's a field by that name, which shadows the method, or no method at all; the
+     * caller gets the property the usual way then.
+     */
+    LoxFunction method(Token name, PropertyCache cache) {
+        int entry = cache.find(shape);
+        if (entry >= 0)
+            return cache.method(entry);
+
+        int slot = shape.slotOf(name.lexeme);
+        LoxFunction method = slot < 0 ? loxClass.findMethod(name.lexeme) : null;
+        cache.add(shape, slot, shape, method);
+        return method;
+    }
+
+    /**
+     * Whether the value is the method this instance's class has by that name. Methods are only ever handed out
+     * bound, so no field can hold one.
+     */
+    boolean isMethod(Token name, Object value) {
+        return value instanceof LoxFunction && loxClass.findMethod(name.lexeme) == value;
+    }
+
+    Object set(Token name, Object value, PropertyCache cache) {
+        int entry = cache.find(shape);
+        int slot;
+        Shape target;
+        if (entry >= 0) {
+            slot = cache.slot(entry);
+            target = cache.target(entry);
+        } else {
+            slot = shape.slotOf(name.lexeme);
+            target = shape;
+            if (slot < 0) {
+                target = shape.withField(name.lexeme);
+                slot = target.size() - 1;
+            }
+            cache.add(shape, slot, target, null);
+        }
+
+        if (slot >= fields.length)
+            grow(slot + 1);
+        shape = target;
+        fields[slot] = value;
         return value;
     }
+
+    /**
+     * Makes room for more fields. The class remembers how many its instances ended up needing, so later instances
+     * usually get the right size straight away.
+     */
+    private void grow(int size) {
+        size = Math.max(size, loxClass.instanceSize);
+        loxClass.instanceSize = size;
+        fields = Arrays.copyOf(fields, size);
+    }
 }
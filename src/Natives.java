@@ -0,0 +1,33 @@
+import java.util.Map;
+
+/**
+ * Functions written in Java that every engine defines as globals.
+ */
+final class Natives {
+    static final Map<String, LoxCallable> FUNCTIONS = Map.of(
+            "clock", new LoxCallable() {
+                @Override
+                public int arity() {
+                    return 0;
+                }
+
+                @Override
+                public Object call0(Interpreter interpreter) {
+                    return (double)System.currentTimeMillis() / 1000.0;
+                }
+
+                @Override
+                public Object call(Interpreter interpreter, Object[] arguments) {
+                    return call0(interpreter);
+                }
+
+                @Override
+                public String toString() {
+                    return "<native fn>";
+                }
+            }
+    );
+
+    private Natives() {
+    }
+}
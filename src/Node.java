@@ -0,0 +1,21 @@
+/**
+ * Base of the executable trees the NodeCompiler builds from resolved statements and expressions. Expression nodes
+ * can rewrite themselves into specialized versions once they've seen the values flowing through them, so every
+ * node knows its parent in order to be swapped out of it.
+ */
+abstract class Node {
+    Node parent;
+
+    /**
+     * Swaps one of this node's expression children for its replacement.
+     */
+    void replaceChild(ExprNode child, ExprNode replacement) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no children to replace.");
+    }
+
+    <T extends Node> T adopt(T child) {
+        if (child != null)
+            child.parent = this;
+        return child;
+    }
+}
@@ -0,0 +1,270 @@
+import java.util.List;
+
+/**
+ * Turns resolved statements into executable node trees. Every choice that only depends on the source, like which
+ * operator a Binary is or whether a variable is local, is made here once instead of on every evaluation.
+ */
+class NodeCompiler implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+    private final Interpreter interpreter;
+    /**
+     * The function being compiled when tiering, whose loops count towards compiling it again.
+     */
+    private Tiering.Profile profile;
+
+    NodeCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Compiles the body of a function that has been called enough times to be worth it. Functions it declares are
+     * left to be walked until they get hot themselves.
+     */
+    StmtNode compile(Tiering.Profile profile) {
+        this.profile = profile;
+        return compile(profile.declaration.body);
+    }
+
+    /**
+     * Compiles statements that run in the current frame, without a scope of their own.
+     */
+    StmtNode compile(List<Stmt> statements) {
+        return new StmtNode.Sequence(compileAll(statements));
+    }
+
+    private StmtNode[] compileAll(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = compile(statements.get(i));
+        return nodes;
+    }
+
+    private StmtNode compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /**
+     * Compiles an expression, including ones from function bodies being inlined at a call.
+     */
+    ExprNode compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private ExprNode read(Token name, int depth, int slot, int upvalue, boolean boxed) {
+        if (upvalue >= 0)
+            return boxed ? new ExprNode.ReadUpvalueCell(upvalue) : new ExprNode.ReadUpvalue(upvalue);
+        if (depth >= 0 && boxed)
+            return new ExprNode.ReadCell(depth, slot);
+        if (depth == 0)
+            return new ExprNode.ReadLocal(slot);
+        if (depth > 0)
+            return new ExprNode.ReadEnclosing(depth, slot);
+        return new ExprNode.ReadGlobal(interpreter.globals, name, slot);
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+
+        if (expr.upvalue >= 0)
+            return new ExprNode.WriteUpvalue(expr.upvalue, value);
+        if (expr.depth >= 0 && expr.boxed)
+            return new ExprNode.WriteCell(expr.depth, expr.slot, value);
+        if (expr.depth == 0)
+            return new ExprNode.WriteLocalNumber(expr.slot, value);
+        if (expr.depth > 0)
+            return new ExprNode.WriteEnclosingNumber(expr.depth, expr.slot, value);
+        return new ExprNode.WriteGlobal(interpreter.globals, expr.name, expr.slot, value);
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+
+        return switch (expr.operator.type) {
+            case MINUS -> new ExprNode.Subtract(left, expr.operator, right);
+            case PLUS -> new ExprNode.Add(left, expr.operator, right);
+            case STAR -> new ExprNode.Multiply(left, expr.operator, right);
+            case SLASH -> new ExprNode.Divide(left, expr.operator, right);
+            case GREATER -> new ExprNode.Greater(left, expr.operator, right);
+            case GREATER_EQUAL -> new ExprNode.GreaterEqual(left, expr.operator, right);
+            case LESS -> new ExprNode.Less(left, expr.operator, right);
+            case LESS_EQUAL -> new ExprNode.LessEqual(left, expr.operator, right);
+            case EQUAL_EQUAL -> new ExprNode.Equal(left, expr.operator, right);
+            case BANG_EQUAL -> new ExprNode.NotEqual(left, expr.operator, right);
+            default -> throw new IllegalArgumentException("Not a binary operator: " + expr.operator.type);
+        };
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        // Method calls compile the object as the callee and look the method up on it themselves.
+        Token name = null;
+        ExprNode callee;
+        if (expr.callee instanceof Expr.Get get) {
+            name = get.name;
+            callee = compile(get.object);
+        } else {
+            callee = compile(expr.callee);
+        }
+
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++)
+            arguments[i] = compile(expr.arguments.get(i));
+
+        return switch (arguments.length) {
+            case 0 -> new ExprNode.Call0(interpreter, callee, expr.paren, name);
+            case 1 -> new ExprNode.Call1(interpreter, callee, expr.paren, name, arguments[0]);
+            case 2 -> new ExprNode.Call2(interpreter, callee, expr.paren, name, arguments[0], arguments[1]);
+            case 3 -> new ExprNode.Call3(interpreter, callee, expr.paren, name, arguments[0], arguments[1],
+                    arguments[2]);
+            case 4 -> new ExprNode.Call4(interpreter, callee, expr.paren, name, arguments[0], arguments[1],
+                    arguments[2], arguments[3]);
+            default -> new ExprNode.CallN(interpreter, callee, expr.paren, name, arguments);
+        };
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        return new ExprNode.Get(compile(expr.object), expr.name);
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        // Grouping only matters to the parser.
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        return new ExprNode.Literal(expr.value);
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+
+        if (expr.operator.type == TokenType.OR)
+            return new ExprNode.Or(left, expr.operator, right);
+        return new ExprNode.And(left, expr.operator, right);
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        return new ExprNode.Set(compile(expr.object), expr.name, compile(expr.value));
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr) {
+        return new ExprNode.Super(read(expr.keyword, expr.depth, expr.slot, expr.upvalue, expr.boxed),
+                compile(expr.receiver), expr.method);
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        return read(expr.keyword, expr.depth, expr.slot, expr.upvalue, expr.boxed);
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+
+        if (expr.operator.type == TokenType.MINUS)
+            return new ExprNode.Negate(expr.operator, right);
+        return new ExprNode.Not(right);
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        return read(expr.name, expr.depth, expr.slot, expr.upvalue, expr.boxed);
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        // Blocks the Resolver merged into the enclosing scope run in its frame.
+        if (stmt.slotCount == 0)
+            return new StmtNode.Sequence(compileAll(stmt.statements));
+        return new StmtNode.Block(compileAll(stmt.statements), stmt.slotCount, stmt.cells);
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        ExprNode superclass = null;
+        Token superclassName = null;
+        if (stmt.superclass != null) {
+            superclass = compile(stmt.superclass);
+            superclassName = stmt.superclass.name;
+        }
+
+        Stmt.Function[] methods = stmt.methods.toArray(new Stmt.Function[0]);
+        if (interpreter.tiering != null) {
+            Tiering.Profile[] profiles = new Tiering.Profile[methods.length];
+            for (int i = 0; i < methods.length; i++)
+                profiles[i] = interpreter.tiering.profile(methods[i]);
+
+            return new StmtNode.Class(stmt.name, stmt.slot, superclass, superclassName, methods, null, profiles);
+        }
+
+        StmtNode[] bodies = new StmtNode[methods.length];
+        for (int i = 0; i < methods.length; i++)
+            bodies[i] = compile(methods[i].body);
+
+        return new StmtNode.Class(stmt.name, stmt.slot, superclass, superclassName, methods, bodies, null);
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        return new StmtNode.Expression(compile(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        if (interpreter.tiering != null)
+            return new StmtNode.Function(interpreter.tiering.profile(stmt));
+        return new StmtNode.Function(stmt, compile(stmt.body));
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        StmtNode elseBranch = null;
+        if (stmt.elseBranch != null)
+            elseBranch = compile(stmt.elseBranch);
+
+        return new StmtNode.If(compile(stmt.condition), compile(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        return new StmtNode.Print(compile(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        ExprNode value = null;
+        if (stmt.value instanceof Expr.Call call) {
+            ExprNode[] arguments = new ExprNode[call.arguments.size()];
+            for (int i = 0; i < arguments.length; i++)
+                arguments[i] = compile(call.arguments.get(i));
+            value = new ExprNode.TailCall(interpreter, compile(call.callee), call.paren, arguments);
+        } else if (stmt.value != null) {
+            value = compile(stmt.value);
+        }
+
+        return new StmtNode.ReturnStmt(value);
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        ExprNode initializer = null;
+        if (stmt.initializer != null)
+            initializer = compile(stmt.initializer);
+
+        return new StmtNode.Var(stmt.name.lexeme, stmt.slot, initializer);
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        return new StmtNode.While(compile(stmt.condition), compile(stmt.body), profile);
+    }
+}
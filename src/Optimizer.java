@@ -0,0 +1,292 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simplifies resolved statements before any engine runs them. It folds operators whose operands are literals, drops
+ * branches and loops whose conditions are literals, and drops statements after a return. It also removes grouping,
+ * turns !!x into x where x is already a boolean, and replaces reads of local variables that are never assigned with
+ * the literal they were declared with.
+ * <p>
+ * Nodes are rebuilt rather than changed, and rebuilt nodes keep what the Resolver stored on the originals. Nothing that
+ * can fail at runtime is folded, so errors are still reported where and when they were.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private final Map<Expr.Variable, Stmt.Var> unassignedReads;
+    /**
+     * The literal each var statement seen so far initialized its variable with, if it was one.
+     */
+    private final Map<Stmt.Var, Expr.Literal> literals = new IdentityHashMap<>();
+
+    Optimizer(Map<Expr.Variable, Stmt.Var> unassignedReads) {
+        this.unassignedReads = unassignedReads;
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>();
+        for (Stmt statement : statements) {
+            Stmt result = statement.accept(this);
+            if (result != null)
+                optimized.add(result);
+
+            // Nothing after a return can run.
+            if (result instanceof Stmt.Return)
+                break;
+        }
+        return optimized;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /**
+     * Optimizes a statement that has to stay a statement, like a loop body, even if there's nothing left of it.
+     */
+    private Stmt optimizeBody(Stmt statement) {
+        Stmt result = statement.accept(this);
+        if (result == null)
+            return new Stmt.Block(List.of());
+        return result;
+    }
+
+    private static boolean isBoolean(Expr expr) {
+        if (expr instanceof Expr.Literal literal)
+            return literal.value instanceof Boolean;
+        if (expr instanceof Expr.Unary unary)
+            return unary.operator.type == TokenType.BANG;
+        if (expr instanceof Expr.Binary binary) {
+            return switch (binary.operator.type) {
+                case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, EQUAL_EQUAL, BANG_EQUAL -> true;
+                default -> false;
+            };
+        }
+        return false;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr.Assign assign = new Expr.Assign(expr.name, optimize(expr.value));
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        assign.upvalue = expr.upvalue;
+        assign.boxed = expr.boxed;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal a && right instanceof Expr.Literal b) {
+            Object value = fold(expr.operator.type, a.value, b.value);
+            if (value != null)
+                return new Expr.Literal(value);
+        }
+
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    /**
+     * Works out what an operator gives for two literals, or returns null if it would fail or can't be worked out
+     * ahead of time.
+     */
+    private static Object fold(TokenType operator, Object left, Object right) {
+        if (operator == TokenType.EQUAL_EQUAL)
+            return Interpreter.isEqual(left, right);
+        if (operator == TokenType.BANG_EQUAL)
+            return !Interpreter.isEqual(left, right);
+
+        if (left instanceof String a && right instanceof String b && operator == TokenType.PLUS)
+            return a + b;
+
+        if (!(left instanceof Double a) || !(right instanceof Double b))
+            return null;
+
+        return switch (operator) {
+            case PLUS -> a + b;
+            case MINUS -> a - b;
+            case STAR -> a * b;
+            case SLASH -> a / b;
+            case GREATER -> a > b;
+            case GREATER_EQUAL -> a >= b;
+            case LESS -> a < b;
+            case LESS_EQUAL -> a <= b;
+            default -> null;
+        };
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        List<Expr> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments)
+            arguments.add(optimize(argument));
+
+        return new Expr.Call(optimize(expr.callee), expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(optimize(expr.object), expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // Grouping only matters to the parser.
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // A literal on the left decides whether the right is evaluated at all.
+        if (left instanceof Expr.Literal literal) {
+            boolean truthy = Interpreter.isTruthy(literal.value);
+            if (expr.operator.type == TokenType.OR)
+                return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(optimize(expr.object), expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal literal) {
+            if (expr.operator.type == TokenType.BANG)
+                return new Expr.Literal(!Interpreter.isTruthy(literal.value));
+            if (literal.value instanceof Double value)
+                return new Expr.Literal(-value);
+        }
+
+        // !!x is only x when x is a boolean to begin with.
+        if (expr.operator.type == TokenType.BANG && right instanceof Expr.Unary inner &&
+                inner.operator.type == TokenType.BANG && isBoolean(inner.right))
+            return inner.right;
+
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        Stmt.Var declaration = unassignedReads.get(expr);
+        if (declaration != null && literals.containsKey(declaration))
+            return new Expr.Literal(literals.get(declaration).value);
+
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        Stmt.Block block = new Stmt.Block(optimize(stmt.statements));
+        block.slotCount = stmt.slotCount;
+        block.cells = stmt.cells;
+        return block;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>();
+        for (Stmt.Function method : stmt.methods)
+            methods.add((Stmt.Function) visitFunctionStmt(method));
+
+        Stmt.Class classStmt = new Stmt.Class(stmt.name, stmt.superclass, methods);
+        classStmt.slot = stmt.slot;
+        return classStmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+
+        // A literal on its own does nothing.
+        if (expression instanceof Expr.Literal)
+            return null;
+
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, optimize(stmt.body));
+        function.slotCount = stmt.slotCount;
+        function.cells = stmt.cells;
+        function.captures = stmt.captures;
+        function.slot = stmt.slot;
+        return function;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (condition instanceof Expr.Literal literal) {
+            if (Interpreter.isTruthy(literal.value))
+                return stmt.thenBranch.accept(this);
+            return stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+        }
+
+        Stmt elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+        return new Stmt.If(condition, optimizeBody(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(stmt.expression == null ? null : optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        return new Stmt.Return(stmt.keyword, stmt.value == null ? null : optimize(stmt.value));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+
+        if (initializer == null)
+            literals.put(stmt, new Expr.Literal(null));
+        else if (initializer instanceof Expr.Literal literal)
+            literals.put(stmt, literal);
+
+        Stmt.Var declaration = new Stmt.Var(stmt.name, initializer);
+        declaration.slot = stmt.slot;
+        return declaration;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (condition instanceof Expr.Literal literal && !Interpreter.isTruthy(literal.value))
+            return null;
+
+        return new Stmt.While(condition, optimizeBody(stmt.body));
+    }
+}
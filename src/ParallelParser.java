@@ -0,0 +1,184 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Scans and parses a large script in chunks at once, for --parallel-parse. A quick pass over the source finds where
+ * it can be split: before a var, fun or class that starts a top-level declaration, outside any braces, parentheses,
+ * string or comment, right after a ';' or '}'. Nothing can continue a statement past such a point, so each chunk
+ * parses on its own to the same statements it would have as part of the whole script, and the chunks' statements
+ * are put back together in order.
+ * <p>
+ * Every chunk is scanned from the line it starts on, so tokens have the same lines as before. Each chunk's errors are
+ * kept until it's done and then reported in the order of the chunks, so they come out as they would have one chunk
+ * at a time.
+ */
+final class ParallelParser {
+    /**
+     * The fewest chars worth parsing as a chunk of their own, so small scripts aren't split at all.
+     */
+    private static final int MIN_CHUNK = 64 * 1024;
+
+    private ParallelParser() {
+    }
+
+    /**
+     * A stretch of the source to scan and parse on its own.
+     */
+    private record Chunk(int start, int end, int line) {
+    }
+
+    /**
+     * What parsing a chunk gave, and the errors it would have reported.
+     */
+    private record Result(List<Stmt> statements, List<String> errors) {
+    }
+
+    static List<Stmt> parse(char[] source, int length) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        // With one thread, finding where to split would only be extra work.
+        if (pool.getParallelism() < 2)
+            return new Parser(new Scanner(source, length).tokens()).parse();
+
+        // A few chunks for each thread, so one that's slow to parse doesn't hold up the rest.
+        int target = Math.max(MIN_CHUNK, length / (pool.getParallelism() * 4));
+        List<Chunk> chunks = split(source, length, target);
+
+        if (chunks.size() == 1)
+            return new Parser(new Scanner(source, length).tokens()).parse();
+
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (Chunk chunk : chunks)
+            tasks.add(() -> parse(source, chunk));
+
+        List<Stmt> statements = new ArrayList<>();
+        for (Future<Result> future : pool.invokeAll(tasks)) {
+            Result result = join(future);
+            for (String error : result.errors)
+                Lox.report(error);
+            statements.addAll(result.statements);
+        }
+        return statements;
+    }
+
+    private static Result parse(char[] source, Chunk chunk) {
+        List<String> errors = new ArrayList<>();
+        List<Stmt> statements = Lox.collectingErrors(errors, () ->
+                new Parser(new Scanner(source, chunk.start, chunk.end, chunk.line).tokens()).parse());
+        return new Result(statements, errors);
+    }
+
+    private static Result join(Future<Result> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Splits the source into chunks of at least target chars each, wherever a top-level declaration starts. Once
+     * the source can't be followed any further, like after an unterminated string or a stray closing brace, the
+     * rest of it is left as one chunk, since only the parser can tell what it means.
+     */
+    private static List<Chunk> split(char[] source, int length, int target) {
+        List<Chunk> chunks = new ArrayList<>();
+        int chunkStart = 0;
+        int chunkLine = 1;
+
+        int line = 1;
+        int braces = 0;
+        int parens = 0;
+        // Whether the last thing that wasn't whitespace or a comment ended a statement.
+        boolean afterStatement = true;
+
+        int i = 0;
+        while (i < length) {
+            char c = source[i];
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (c == ' ' || c == '\r' || c == '\t') {
+                i++;
+            } else if (c == '/' && i + 1 < length && source[i + 1] == '/') {
+                while (i < length && source[i] != '\n')
+                    i++;
+            } else if (c == '"') {
+                i++;
+                while (i < length && source[i] != '"') {
+                    if (source[i] == '\n')
+                        line++;
+                    i++;
+                }
+                if (i == length)
+                    break;
+                i++;
+                afterStatement = false;
+            } else if (isAlpha(c)) {
+                int start = i;
+                while (i < length && (isAlpha(source[i]) || isDigit(source[i])))
+                    i++;
+
+                if (afterStatement && braces == 0 && parens == 0 && start - chunkStart >= target &&
+                        isDeclaration(source, start, i - start)) {
+                    chunks.add(new Chunk(chunkStart, start, chunkLine));
+                    chunkStart = start;
+                    chunkLine = line;
+                }
+                afterStatement = false;
+            } else if (isDigit(c)) {
+                // Numbers are skipped whole, so letters right after one aren't taken for a keyword.
+                while (i < length && (isAlpha(source[i]) || isDigit(source[i]) || source[i] == '.'))
+                    i++;
+                afterStatement = false;
+            } else {
+                switch (c) {
+                    case '{' -> braces++;
+                    case '}' -> braces--;
+                    case '(' -> parens++;
+                    case ')' -> parens--;
+                }
+                if (braces < 0 || parens < 0)
+                    break;
+                afterStatement = c == ';' || c == '}';
+                i++;
+            }
+        }
+
+        chunks.add(new Chunk(chunkStart, length, chunkLine));
+        return chunks;
+    }
+
+    private static boolean isDeclaration(char[] source, int start, int length) {
+        return matches(source, start, length, "var") || matches(source, start, length, "fun") ||
+                matches(source, start, length, "class");
+    }
+
+    private static boolean matches(char[] source, int start, int length, String keyword) {
+        if (length != keyword.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (source[start + i] != keyword.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') ||
+                (c >= 'A' && c <= 'Z') ||
+                c == '_';
+    }
+}
@@ -5,11 +5,16 @@ import java.util.List;
 class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
+    /**
+     * Tokens are only made into Token objects by previous() and peek(), when the tree keeps one or an error is
+     * reported at one.
+     */
+    private final TokenStream tokens;
     private int current = 0;
 
-    Parser(List<Token> tokens) {
+    Parser(TokenStream tokens) {
         this.tokens = tokens;
+        tokens.reach(0);
     }
 
     List<Stmt> parse() {
@@ -38,7 +43,8 @@ class Parser {
     }
 
     private Stmt classDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect class name.");
+        consume(TokenType.IDENTIFIER, "Expect class name.");
+        Token name = previous();
 
         Expr.Variable superclass = null;
         if (match(TokenType.LESS)) {
@@ -58,7 +64,8 @@ class Parser {
     }
 
     private Stmt.Function function(String kind) {
-        Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+        consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+        Token name = previous();
 
         consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + " name.");
 
@@ -68,7 +75,8 @@ class Parser {
                 if (parameters.size() >= 255)
                     error(peek(), "Can't have more than 255 parameters.");
 
-                parameters.add(consume(TokenType.IDENTIFIER, "Expect parameter name."));
+                consume(TokenType.IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
             } while (match(TokenType.COMMA));
         }
 
@@ -80,7 +88,8 @@ class Parser {
     }
 
     private Stmt varDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+        consume(TokenType.IDENTIFIER, "Expect variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if (match(TokenType.EQUAL))
@@ -314,7 +323,8 @@ class Parser {
             if (match(TokenType.LEFT_PAREN))
                 expr = finishCall(expr);
             else if (match(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
+                consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
+                Token name = previous();
                 expr = new Expr.Get(expr, name);
             }
             else break;
@@ -333,7 +343,8 @@ class Parser {
             } while (match(TokenType.COMMA));
         }
 
-        Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+        Token paren = previous();
 
         return new Expr.Call(callee, paren, arguments);
     }
@@ -347,12 +358,13 @@ class Parser {
             return new Expr.Literal(null);
 
         if (match(TokenType.NUMBER, TokenType.STRING))
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.literal(current - 1));
 
         if (match(TokenType.SUPER)) {
             Token keyword = previous();
             consume(TokenType.DOT, "Expect '.' after 'super'.");
-            Token method = consume(TokenType.IDENTIFIER, "Expect superclass method name.");
+            consume(TokenType.IDENTIFIER, "Expect superclass method name.");
+            Token method = previous();
             return new Expr.Super(keyword, method);
         }
 
@@ -385,9 +397,11 @@ class Parser {
     /**
      * Like match, but it throws an error if there's an unexpected token
      */
-    private Token consume(TokenType type, String message) {
-        if (check(type))
-            return advance();
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
@@ -395,25 +409,24 @@ class Parser {
     private boolean check(TokenType type) {
         if (isAtEnd())
             return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd())
-            current++;
-        return previous();
+            tokens.reach(++current);
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return tokens.type(current) == TokenType.EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private ParseError error(Token token, String message) {
@@ -426,10 +439,10 @@ class Parser {
 
         // Discard chars until we hit a statement boundary
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON)
+            if (tokens.type(current - 1) == TokenType.SEMICOLON)
                 return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case TokenType.CLASS:
                 case TokenType.FUN:
                 case TokenType.VAR:
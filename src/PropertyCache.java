@@ -0,0 +1,58 @@
+/**
+ * An inline cache for one property access in the source: the shapes of the instances it has seen, and what it found
+ * for each. Every class has its own shapes, so a shape also decides which method a name finds. Most accesses only
+ * ever see one shape, so the first entry is almost always a hit. Once a site has seen more shapes than fit, the rest
+ * are looked up every time.
+ */
+final class PropertyCache {
+    static final int MAX_SHAPES = 4;
+
+    private final Shape[] shapes = new Shape[MAX_SHAPES];
+    /**
+     * The field's slot for each shape, or -1 if instances with that shape don't have the field.
+     */
+    private final int[] slots = new int[MAX_SHAPES];
+    /**
+     * The shape an instance has after a set. It's the same shape unless the set added the field.
+     */
+    private final Shape[] targets = new Shape[MAX_SHAPES];
+    /**
+     * For gets of something that isn't a field, the method the class has by that name, if any.
+     */
+    private final LoxFunction[] methods = new LoxFunction[MAX_SHAPES];
+    private int size = 0;
+
+    /**
+     * Returns the entry for the shape, or -1 if there isn't one.
+     */
+    int find(Shape shape) {
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape)
+                return i;
+        }
+        return -1;
+    }
+
+    int slot(int entry) {
+        return slots[entry];
+    }
+
+    Shape target(int entry) {
+        return targets[entry];
+    }
+
+    LoxFunction method(int entry) {
+        return methods[entry];
+    }
+
+    void add(Shape shape, int slot, Shape target, LoxFunction method) {
+        if (size == MAX_SHAPES)
+            return;
+
+        shapes[size] = shape;
+        slots[size] = slot;
+        targets[size] = target;
+        methods[size] = method;
+        size++;
+    }
+}
@@ -1,4 +1,6 @@
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -18,17 +20,111 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         SUBCLASS
     }
 
-    private final Interpreter interpreter;
     /**
-     * Value is whether we've finished initializing the variable yet.
+     * A local variable in one of the scopes being resolved.
      */
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private static class Local {
+        /**
+         * Index of the variable in its scope's runtime Environment.
+         */
+        final int slot;
+        /**
+         * Whether we've finished initializing the variable yet.
+         */
+        boolean defined;
+        /**
+         * The var statement that declared the variable, or null if it's a parameter, function, class, 'this' or
+         * 'super'.
+         */
+        Stmt.Var declaration;
+        boolean assigned = false;
+        final List<Expr.Variable> reads = new ArrayList<>();
+        /**
+         * Whether a function declared inside the one declaring the variable uses it.
+         */
+        boolean captured = false;
+        /**
+         * Whether it's a function or class, which closures can capture before it has its value, since functions and
+         * methods can refer to themselves and their class.
+         */
+        boolean late = false;
+        /**
+         * Every expression that refers to the variable, to tell once it's known whether the variable needs a Cell.
+         */
+        final List<Expr> references = new ArrayList<>();
+
+        Local(int slot, boolean defined) {
+            this.slot = slot;
+            this.defined = defined;
+        }
+    }
+
+    /**
+     * A function being resolved, or the top level. Its own scopes are the ones from scopeBase up; anything it uses
+     * from further down is captured.
+     */
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        final int scopeBase;
+        final List<Capture> captures = new ArrayList<>();
+        /**
+         * Where each variable the function captures is among its upvalues.
+         */
+        final Map<Local, Integer> upvalues = new HashMap<>();
+
+        FunctionScope(FunctionScope enclosing, int scopeBase) {
+            this.enclosing = enclosing;
+            this.scopeBase = scopeBase;
+        }
+    }
+
+    /**
+     * A scope being resolved. Only function bodies, classes' 'super' scopes and blocks that closures could capture
+     * variables from get an Environment of their own at runtime. Any other block runs in the Environment of the scope
+     * enclosing it, with its variables in slots of that one's, so it doesn't count towards depths.
+     */
+    private static class Scope {
+        final Map<String, Local> locals = new HashMap<>();
+        /**
+         * The scope whose Environment holds this one's variables: itself, or the one it was merged into. Blocks at
+         * the top level that declare nothing have none.
+         */
+        final Scope frame;
+        /**
+         * How many slots the scope's Environment needs, counting the variables of the blocks merged into it.
+         */
+        int size = 0;
+
+        Scope(Scope enclosing, boolean merged) {
+            if (!merged)
+                frame = this;
+            else
+                frame = enclosing == null ? null : enclosing.frame;
+        }
+
+        boolean hasEnvironment() {
+            return frame == this;
+        }
+    }
+
+    private final Stack<Scope> scopes = new Stack<>();
+    private final Globals globals;
+    private FunctionScope function = new FunctionScope(null, 0);
 
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    /**
+     * Every read of a local variable that's declared with var and never assigned afterwards, and its declaration.
+     */
+    private final Map<Expr.Variable, Stmt.Var> unassignedReads = new IdentityHashMap<>();
+
+    Resolver(Globals globals) {
+        this.globals = globals;
+    }
+
+    Map<Expr.Variable, Stmt.Var> unassignedReads() {
+        return unassignedReads;
     }
 
     void resolve(List<Stmt> statements) {
@@ -45,20 +141,99 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         expr.accept(this);
     }
 
+    /**
+     * Stores where the variable lives on the expression itself: in one of the current function's scopes, among the
+     * variables it captured, or else at its index among the globals.
+     */
     private void resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+            Local local = scopes.get(i).locals.get(name.lexeme);
+            if (local != null) {
+                int depth = -1;
+                int upvalue = -1;
+                if (i >= function.scopeBase) {
+                    depth = environments(i, scopes.size() - 1);
+                } else {
+                    upvalue = upvalue(function, i, local);
+                    local.captured = true;
+                }
+                local.references.add(expr);
+
+                if (expr instanceof Expr.Variable variable) {
+                    variable.depth = depth;
+                    variable.slot = local.slot;
+                    variable.upvalue = upvalue;
+                    local.reads.add(variable);
+                } else if (expr instanceof Expr.Assign assign) {
+                    assign.depth = depth;
+                    assign.slot = local.slot;
+                    assign.upvalue = upvalue;
+                    local.assigned = true;
+                } else if (expr instanceof Expr.This thisExpr) {
+                    thisExpr.depth = depth;
+                    thisExpr.slot = local.slot;
+                    thisExpr.upvalue = upvalue;
+                } else if (expr instanceof Expr.Super superExpr) {
+                    superExpr.depth = depth;
+                    superExpr.slot = local.slot;
+                    superExpr.upvalue = upvalue;
+                }
+                return;
             }
         }
+
+        if (expr instanceof Expr.Variable variable)
+            variable.slot = globals.index(name.lexeme);
+        else if (expr instanceof Expr.Assign assign)
+            assign.slot = globals.index(name.lexeme);
+    }
+
+    /**
+     * Returns the index of a variable from the given scope among the function's upvalues, capturing it first if
+     * needed. Functions in between capture it too, so each closure can copy it from the one it's created in.
+     */
+    private int upvalue(FunctionScope function, int scope, Local local) {
+        Integer index = function.upvalues.get(local);
+        if (index != null)
+            return index;
+
+        // The closure is created in the innermost scope of the enclosing function, just below the function's own.
+        FunctionScope enclosing = function.enclosing;
+        if (scope >= enclosing.scopeBase)
+            function.captures.add(new Capture(environments(scope, function.scopeBase - 1), local.slot));
+        else
+            function.captures.add(new Capture(-1, upvalue(enclosing, scope, local)));
+
+        function.upvalues.put(local, function.captures.size() - 1);
+        return function.captures.size() - 1;
+    }
+
+    /**
+     * Counts the scopes with an Environment of their own after the first given one, up to and including the last,
+     * which is how many Environments out from the last one a variable in the first is.
+     */
+    private int environments(int from, int to) {
+        int count = 0;
+        for (int i = from + 1; i <= to; i++) {
+            if (scopes.get(i).hasEnvironment())
+                count++;
+        }
+        return count;
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
-        FunctionType enclosingFunction = type;
+        FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        FunctionScope enclosingScope = this.function;
+        this.function = new FunctionScope(enclosingScope, scopes.size());
 
         beginScope();
 
+        // Methods get 'this' in their own frame, ahead of the parameters, so calling one doesn't need an
+        // environment to bind it in first.
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER)
+            scopes.peek().locals.put("this", new Local(scopes.peek().size++, true));
+
         for (Token param : function.params) {
             declare(param);
             define(param);
@@ -66,35 +241,91 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         resolve(function.body);
 
-        endScope();
+        function.slotCount = scopes.peek().size;
+        function.cells = endScope();
+        function.captures = this.function.captures.toArray(new Capture[0]);
+        this.function = enclosingScope;
         currentFunction = enclosingFunction;
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        beginScope(false);
     }
 
-    private void endScope() {
-        scopes.pop();
+    private void beginScope(boolean merged) {
+        scopes.push(new Scope(scopes.isEmpty() ? null : scopes.peek(), merged));
     }
 
-    private void declare(Token name) {
+    /**
+     * Pops the innermost scope, returning which of its slots need a Cell, or null if none do. A variable needs one
+     * when it's captured and might not have its final value yet when it is: when it's assigned later, or it's a
+     * function or class. Every other captured variable is captured by value.
+     */
+    private boolean[] endScope() {
+        Scope scope = scopes.pop();
+        boolean[] cells = null;
+        for (Local local : scope.locals.values()) {
+            if (local.declaration != null && !local.assigned) {
+                for (Expr.Variable read : local.reads)
+                    unassignedReads.put(read, local.declaration);
+            }
+
+            if (local.captured && (local.assigned || local.late)) {
+                if (cells == null)
+                    cells = new boolean[scope.size];
+                cells[local.slot] = true;
+                for (Expr reference : local.references)
+                    box(reference);
+            }
+        }
+        return cells;
+    }
+
+    private static void box(Expr reference) {
+        if (reference instanceof Expr.Variable variable)
+            variable.boxed = true;
+        else if (reference instanceof Expr.Assign assign)
+            assign.boxed = true;
+        else if (reference instanceof Expr.This thisExpr)
+            thisExpr.boxed = true;
+        else if (reference instanceof Expr.Super superExpr)
+            superExpr.boxed = true;
+    }
+
+    /**
+     * Declares a variable in the innermost scope, returning the slot it gets, which for a global is its index among
+     * the globals.
+     */
+    private int declare(Token name) {
         if (scopes.isEmpty())
-            return;
+            return globals.index(name.lexeme);
 
-        Map<String, Boolean> scope = scopes.peek();
+        Scope scope = scopes.peek();
 
-        if (scope.containsKey(name.lexeme)) {
+        if (scope.locals.containsKey(name.lexeme)) {
             Lox.error(name, "Already a variable with the name '" + name.lexeme + "' in this scope.");
+            return -1;
         }
 
-        scope.put(name.lexeme, false);
+        // Merged blocks never reuse slots, even once they've ended, so a slot never switches between holding a Cell
+        // and not.
+        int slot = scope.frame.size++;
+        scope.locals.put(name.lexeme, new Local(slot, false));
+        return slot;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty())
             return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().locals.get(name.lexeme).defined = true;
+    }
+
+    /**
+     * Marks a function or class declared in a local scope as one closures can capture before it's defined.
+     */
+    private void late(Token name) {
+        if (!scopes.isEmpty())
+            scopes.peek().locals.get(name.lexeme).late = true;
     }
 
     @Override
@@ -160,6 +391,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         else if (currentClass == ClassType.CLASS)
             Lox.error(expr.keyword, "Can't use 'super' in a class without a superclass.");
         resolveLocal(expr, expr.keyword);
+
+        // The method is bound to 'this', which can be somewhere else than 'super' entirely when it's captured.
+        expr.receiver = new Expr.This(new Token(TokenType.THIS, "this", null, expr.keyword.line));
+        resolveLocal(expr.receiver, expr.receiver.keyword);
         return null;
     }
 
@@ -182,7 +417,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        if (!scopes.isEmpty() && scopes.peek().locals.containsKey(expr.name.lexeme)
+                && !scopes.peek().locals.get(expr.name.lexeme).defined) {
             Lox.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
@@ -192,19 +428,58 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        // A block that declares nothing needs no scope at runtime, and neither does one that nothing can capture from
+        // if there's an Environment to put its variables in instead.
+        boolean merged = !declaresAnything(stmt.statements) ||
+                (!scopes.isEmpty() && scopes.peek().frame != null && !declaresFunction(stmt.statements));
+        beginScope(merged);
         resolve(stmt.statements);
-        endScope();
+        // Blocks without slots of their own run in the enclosing Environment.
+        stmt.slotCount = merged ? 0 : scopes.peek().size;
+        stmt.cells = endScope();
         return null;
     }
 
+    private static boolean declaresAnything(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function || statement instanceof Stmt.Class)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether any of the statements declares a function or class, even nested in other statements, which could
+     * capture variables from around it.
+     */
+    private static boolean declaresFunction(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (declaresFunction(statement))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean declaresFunction(Stmt statement) {
+        return switch (statement) {
+            case Stmt.Function function -> true;
+            case Stmt.Class classStmt -> true;
+            case Stmt.Block block -> declaresFunction(block.statements);
+            case Stmt.If ifStmt -> declaresFunction(ifStmt.thenBranch) ||
+                    (ifStmt.elseBranch != null && declaresFunction(ifStmt.elseBranch));
+            case Stmt.While loop -> declaresFunction(loop.body);
+            default -> false;
+        };
+    }
+
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
+        late(stmt.name);
 
         if (stmt.superclass != null) {
             currentClass = ClassType.SUBCLASS;
@@ -216,12 +491,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(stmt.superclass);
 
             beginScope();
-            scopes.peek().put("super", true);
+            scopes.peek().locals.put("super", new Local(scopes.peek().size++, true));
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init"))
@@ -231,7 +503,6 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null)
             endScope();
-        endScope();
         currentClass = enclosingClass;
 
         return null;
@@ -245,8 +516,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name); // Define before body, allowing recursion
+        late(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -287,11 +559,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
         define(stmt.name);
+
+        if (!scopes.isEmpty())
+            scopes.peek().locals.get(stmt.name.lexeme).declaration = stmt;
         return null;
     }
 
@@ -1,48 +1,68 @@
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
+/**
+ * Turns source code into a TokenStream, reading it straight out of a char array, one token at a time as the stream
+ * is read. Tokens are only recorded as where they are in the source, so scanning allocates nothing per token. Their
+ * lexemes come from a SymbolTable once the Parser asks for them, so a name that appears again doesn't allocate a new
+ * String.
+ */
 class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
-    private int start = 0, current = 0, line = 1;
-
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-
-        keywords.put("and", TokenType.AND);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("if", TokenType.IF);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("or", TokenType.OR);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("while", TokenType.WHILE);
-    }
-
-    Scanner(String source) {
+    private final char[] source;
+    /**
+     * Where in source to stop scanning.
+     */
+    private final int end;
+    private final TokenStream tokens;
+    private int start, current, line;
+    private boolean done = false;
+
+    /**
+     * Scans the first length chars of source.
+     */
+    Scanner(char[] source, int length) {
+        this(source, 0, length, 1);
+    }
+
+    /**
+     * Scans the chars of source from start up to end, which begin on the given line.
+     */
+    Scanner(char[] source, int start, int end, int line) {
         this.source = source;
+        this.end = end;
+        this.start = start;
+        this.current = start;
+        this.line = line;
+        tokens = new TokenStream(source, new SymbolTable(), this);
     }
 
-    List<Token> scanTokens() {
-        while (!isAtEnd()) {
+    /**
+     * Returns the stream of the source's tokens. Nothing has been scanned yet; that happens as it's read.
+     */
+    TokenStream tokens() {
+        return tokens;
+    }
+
+    /**
+     * Scans the next token into the stream, skipping whitespace and comments, or adds EOF at the end of the source.
+     */
+    void scanNext() {
+        int scanned = tokens.size();
+        while (tokens.size() == scanned) {
+            if (isAtEnd()) {
+                start = current;
+                tokens.add(TokenType.EOF, current, 0, line);
+                done = true;
+                return;
+            }
+
             start = current;
             scanToken();
         }
+    }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line));
-        return tokens;
+    /**
+     * Whether EOF has been added to the stream.
+     */
+    boolean isDone() {
+        return done;
     }
 
     private void scanToken() {
@@ -131,11 +151,11 @@ class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     private char advance() {
-        return source.charAt(current++);
+        return source[current++];
     }
 
     /**
@@ -144,7 +164,7 @@ class Scanner {
     private boolean match(char expected) {
         if (isAtEnd())
             return false;
-        if (source.charAt(current) != expected) return false;
+        if (source[current] != expected) return false;
 
         // Only increment current if the char is included in the current token
         current++;
@@ -153,13 +173,13 @@ class Scanner {
 
     private char peek() {
         if (isAtEnd()) return '\0'; // \0 is the null character
-        return source.charAt(current);
+        return source[current];
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length())
+        if (current + 1 >= end)
             return '\0';
-        return source.charAt(current + 1);
+        return source[current + 1];
     }
 
     private boolean isDigit(char c) {
@@ -177,12 +197,7 @@ class Scanner {
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
-    }
-
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(type, start, current - start, line);
     }
 
     /**
@@ -203,7 +218,7 @@ class Scanner {
         // Skip the closing "
         advance();
 
-        addToken(TokenType.STRING, source.substring(start+1, current-1));
+        addToken(TokenType.STRING);
     }
 
     private void number() {
@@ -218,18 +233,64 @@ class Scanner {
                 advance();
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(TokenType.NUMBER);
     }
 
     private void identifier() {
         while (isAlphanumeric(peek()))
             advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null)
-            type = TokenType.IDENTIFIER;
+        if (!keyword())
+            addToken(TokenType.IDENTIFIER);
+    }
+
+    /**
+     * Adds the identifier being scanned as a keyword if it is one, going by its first letter or two so no other
+     * keyword has to be compared against.
+     */
+    private boolean keyword() {
+        switch (source[start]) {
+            case 'a': return keyword("and", TokenType.AND);
+            case 'c': return keyword("class", TokenType.CLASS);
+            case 'e': return keyword("else", TokenType.ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (source[start + 1]) {
+                        case 'a': return keyword("false", TokenType.FALSE);
+                        case 'o': return keyword("for", TokenType.FOR);
+                        case 'u': return keyword("fun", TokenType.FUN);
+                    }
+                }
+                return false;
+            case 'i': return keyword("if", TokenType.IF);
+            case 'n': return keyword("nil", TokenType.NIL);
+            case 'o': return keyword("or", TokenType.OR);
+            case 'p': return keyword("print", TokenType.PRINT);
+            case 'r': return keyword("return", TokenType.RETURN);
+            case 's': return keyword("super", TokenType.SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (source[start + 1]) {
+                        case 'h': return keyword("this", TokenType.THIS);
+                        case 'r': return keyword("true", TokenType.TRUE);
+                    }
+                }
+                return false;
+            case 'v': return keyword("var", TokenType.VAR);
+            case 'w': return keyword("while", TokenType.WHILE);
+        }
+        return false;
+    }
+
+    private boolean keyword(String word, TokenType type) {
+        if (current - start != word.length())
+            return false;
+        for (int i = 1; i < word.length(); i++) {
+            if (source[start + i] != word.charAt(i))
+                return false;
+        }
 
         addToken(type);
+        return true;
     }
 }
@@ -0,0 +1,46 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The layout of a LoxInstance's fields: which slot of its field array each field is stored in.
+ * <p>
+ * Every class has an empty shape its instances start out with. Adding a field moves an instance along a transition to
+ * the next shape, and the same transition is taken by every instance that adds the same field next, so instances
+ * that were given the same fields in the same order share a shape. That lets a property access remember the slot it
+ * found for a shape and skip the lookup the next time it sees that shape.
+ */
+final class Shape {
+    /**
+     * Slot of each field. Shapes never change once made, so this is shared by every instance that has the shape.
+     */
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    Shape() {
+        slots = Map.of();
+    }
+
+    private Shape(Shape parent, String field) {
+        slots = new HashMap<>(parent.slots);
+        slots.put(field, parent.slots.size());
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    /**
+     * Returns the slot of the field, or -1 if instances with this shape don't have it.
+     */
+    int slotOf(String field) {
+        Integer slot = slots.get(field);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Returns the shape of an instance with this shape once the field is added to it.
+     */
+    Shape withField(String field) {
+        return transitions.computeIfAbsent(field, name -> new Shape(this, name));
+    }
+}
@@ -15,6 +15,8 @@ abstract class Stmt {
 
 	static class Block extends Stmt {
 		final List<Stmt> statements;
+		int slotCount;
+		boolean[] cells;
 		Block(List<Stmt> statements) {
 			this.statements = statements;
 		}
@@ -29,6 +31,7 @@ abstract class Stmt {
 		final Token name;
 		final Expr.Variable superclass;
 		final List<Stmt.Function> methods;
+		int slot = -1;
 		Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
 			this.name = name;
 			this.superclass = superclass;
@@ -57,6 +60,11 @@ abstract class Stmt {
 		final Token name;
 		final List<Token> params;
 		final List<Stmt> body;
+		int slotCount;
+		boolean[] cells;
+		Capture[] captures;
+		int slot = -1;
+		Tiering.Profile profile;
 		Function(Token name, List<Token> params, List<Stmt> body) {
 			this.name = name;
 			this.params = params;
@@ -114,6 +122,7 @@ abstract class Stmt {
 	static class Var extends Stmt {
 		final Token name;
 		final Expr initializer;
+		int slot = -1;
 		Var(Token name, Expr initializer) {
 			this.name = name;
 			this.initializer = initializer;
@@ -128,6 +137,7 @@ abstract class Stmt {
 	static class While extends Stmt {
 		final Expr condition;
 		final Stmt body;
+		Tiering.Loop loop;
 		While(Expr condition, Stmt body) {
 			this.condition = condition;
 			this.body = body;
@@ -0,0 +1,303 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An executable statement.
+ */
+abstract class StmtNode extends Node {
+    /**
+     * Runs the statement, returning Interpreter.COMPLETED, or the value being returned if it returned.
+     */
+    abstract Object execute(Environment frame);
+
+    /**
+     * Statements that run in the current frame, like a function body or the top level of a script.
+     */
+    static class Sequence extends StmtNode {
+        final StmtNode[] statements;
+
+        Sequence(StmtNode[] statements) {
+            this.statements = statements;
+            for (StmtNode statement : statements)
+                adopt(statement);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            for (StmtNode statement : statements) {
+                Object result = statement.execute(frame);
+                if (result != Interpreter.COMPLETED)
+                    return result;
+            }
+            return Interpreter.COMPLETED;
+        }
+    }
+
+    static class Block extends StmtNode {
+        final StmtNode[] statements;
+        final int slotCount;
+        final boolean[] cells;
+
+        Block(StmtNode[] statements, int slotCount, boolean[] cells) {
+            this.statements = statements;
+            this.slotCount = slotCount;
+            this.cells = cells;
+            for (StmtNode statement : statements)
+                adopt(statement);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Environment environment = new Environment(frame, slotCount, cells);
+            for (StmtNode statement : statements) {
+                Object result = statement.execute(environment);
+                if (result != Interpreter.COMPLETED)
+                    return result;
+            }
+            return Interpreter.COMPLETED;
+        }
+    }
+
+    static class Expression extends StmtNode {
+        ExprNode expression;
+
+        Expression(ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            expression.executeVoid(frame);
+            return Interpreter.COMPLETED;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            expression = replacement;
+        }
+    }
+
+    static class Print extends StmtNode {
+        ExprNode expression;
+
+        Print(ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            System.out.println(Interpreter.stringify(expression.execute(frame)));
+            return Interpreter.COMPLETED;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            expression = replacement;
+        }
+    }
+
+    static class Var extends StmtNode {
+        final String name;
+        final int slot;
+        ExprNode initializer;
+
+        Var(String name, int slot, ExprNode initializer) {
+            this.name = name;
+            this.slot = slot;
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object value = null;
+            if (initializer != null)
+                value = initializer.execute(frame);
+
+            frame.define(name, slot, value);
+            return Interpreter.COMPLETED;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            initializer = replacement;
+        }
+    }
+
+    static class If extends StmtNode {
+        ExprNode condition;
+        final StmtNode thenBranch;
+        final StmtNode elseBranch;
+
+        If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            if (Interpreter.isTruthy(condition.execute(frame)))
+                return thenBranch.execute(frame);
+            if (elseBranch != null)
+                return elseBranch.execute(frame);
+            return Interpreter.COMPLETED;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            condition = replacement;
+        }
+    }
+
+    static class While extends StmtNode {
+        ExprNode condition;
+        final StmtNode body;
+        /**
+         * The profile of the enclosing function when tiering, which counts the iterations.
+         */
+        final Tiering.Profile profile;
+
+        While(ExprNode condition, StmtNode body, Tiering.Profile profile) {
+            this.condition = adopt(condition);
+            this.body = adopt(body);
+            this.profile = profile;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            while (Interpreter.isTruthy(condition.execute(frame))) {
+                Object result = body.execute(frame);
+                if (result != Interpreter.COMPLETED)
+                    return result;
+                if (profile != null)
+                    profile.backEdge();
+            }
+            return Interpreter.COMPLETED;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            condition = replacement;
+        }
+    }
+
+    /**
+     * Not called Return, so that it doesn't hide Stmt.Return in NodeCompiler.
+     */
+    static class ReturnStmt extends StmtNode {
+        ExprNode value;
+
+        ReturnStmt(ExprNode value) {
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            if (value == null)
+                return null;
+            return value.execute(frame);
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            value = replacement;
+        }
+    }
+
+    static class Function extends StmtNode {
+        final Stmt.Function declaration;
+        final StmtNode body;
+        /**
+         * When tiering, the function's body comes from here instead, and isn't compiled up front.
+         */
+        final Tiering.Profile profile;
+
+        Function(Stmt.Function declaration, StmtNode body) {
+            this.declaration = declaration;
+            this.body = adopt(body);
+            this.profile = null;
+        }
+
+        Function(Tiering.Profile profile) {
+            this.declaration = profile.declaration;
+            this.body = null;
+            this.profile = profile;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            LoxFunction function;
+            if (profile != null)
+                function = new LoxFunction(declaration, frame, false, profile);
+            else
+                function = new LoxFunction(declaration, frame, false, body);
+
+            frame.define(declaration.name.lexeme, declaration.slot, function);
+            return Interpreter.COMPLETED;
+        }
+    }
+
+    static class Class extends StmtNode {
+        final Token name;
+        final int slot;
+        ExprNode superclass;
+        final Token superclassName;
+        final Stmt.Function[] methods;
+        final StmtNode[] methodBodies;
+        /**
+         * Used instead of the bodies when tiering.
+         */
+        final Tiering.Profile[] methodProfiles;
+
+        Class(Token name, int slot, ExprNode superclass, Token superclassName, Stmt.Function[] methods,
+              StmtNode[] methodBodies, Tiering.Profile[] methodProfiles) {
+            this.name = name;
+            this.slot = slot;
+            this.superclass = adopt(superclass);
+            this.superclassName = superclassName;
+            this.methods = methods;
+            this.methodBodies = methodBodies;
+            this.methodProfiles = methodProfiles;
+            if (methodBodies != null) {
+                for (StmtNode body : methodBodies)
+                    adopt(body);
+            }
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object superValue = null;
+            if (superclass != null) {
+                superValue = superclass.execute(frame);
+                if (!(superValue instanceof LoxClass))
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+            }
+
+            Environment environment = frame;
+            if (superclass != null) {
+                environment = new Environment(frame, 1);
+                environment.define("super", 0, superValue);
+            }
+
+            Map<String, LoxFunction> functions = new HashMap<>();
+            for (int i = 0; i < methods.length; i++) {
+                Stmt.Function method = methods[i];
+                boolean isInitializer = method.name.lexeme.equals("init");
+                LoxFunction function;
+                if (methodProfiles != null)
+                    function = new LoxFunction(method, environment, isInitializer, methodProfiles[i]);
+                else
+                    function = new LoxFunction(method, environment, isInitializer, methodBodies[i]);
+                functions.put(method.name.lexeme, function);
+            }
+
+            frame.define(name.lexeme, slot, new LoxClass(name.lexeme, (LoxClass) superValue, functions));
+            return Interpreter.COMPLETED;
+        }
+
+        @Override
+        void replaceChild(ExprNode child, ExprNode replacement) {
+            superclass = replacement;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Interns the lexemes the Scanner reads out of its source, so the same name is the same String every time it
+ * appears in a script, and one that's been seen before is looked up without allocating. Nothing compares names by
+ * identity across scripts, so they're kept out of the JVM's own string table.
+ */
+final class SymbolTable {
+    private String[] symbols = new String[256];
+    private int[] hashes = new int[256];
+    private int count = 0;
+
+    String intern(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++)
+            hash = 31 * hash + chars[i];
+
+        int mask = symbols.length - 1;
+        int index = hash & mask;
+        for (String symbol = symbols[index]; symbol != null; symbol = symbols[index]) {
+            if (hashes[index] == hash && matches(symbol, chars, start, length))
+                return symbol;
+            index = (index + 1) & mask;
+        }
+
+        String symbol = new String(chars, start, length);
+        symbols[index] = symbol;
+        hashes[index] = hash;
+        // Keeping the table at most half full keeps probe sequences short.
+        if (++count * 2 > symbols.length)
+            grow();
+        return symbol;
+    }
+
+    private static boolean matches(String symbol, char[] chars, int start, int length) {
+        if (symbol.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (symbol.charAt(i) != chars[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        String[] oldSymbols = symbols;
+        int[] oldHashes = hashes;
+        symbols = new String[oldSymbols.length * 2];
+        hashes = new int[oldHashes.length * 2];
+
+        int mask = symbols.length - 1;
+        for (int i = 0; i < oldSymbols.length; i++) {
+            if (oldSymbols[i] == null)
+                continue;
+            int index = oldHashes[i] & mask;
+            while (symbols[index] != null)
+                index = (index + 1) & mask;
+            symbols[index] = oldSymbols[i];
+            hashes[index] = oldHashes[i];
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Decides when functions move to a faster engine. Every function starts out walked by the Interpreter, which costs
+ * nothing up front. Once it has been called often enough it's compiled to a node tree, and once it has been called
+ * (or has looped) a lot more it's compiled to JVM code.
+ * <p>
+ * Counters and compiled bodies are kept on the declaration, so every closure made from a declaration, and every bound
+ * method, shares them, and they go away with the statements they belong to.
+ */
+class Tiering {
+    static final int DEFAULT_NODES_THRESHOLD = 10;
+    static final int DEFAULT_JVM_THRESHOLD = 1000;
+    static final int DEFAULT_LOOP_THRESHOLD = 10000;
+
+    private final Interpreter interpreter;
+    /**
+     * Calls before a function is compiled to nodes.
+     */
+    private final int nodesThreshold;
+    /**
+     * Calls before a function is compiled to JVM code.
+     */
+    private final int jvmThreshold;
+    /**
+     * Loop iterations, across all calls, before a function is compiled to JVM code.
+     */
+    private final int loopThreshold;
+    private final boolean log;
+
+    Tiering(Interpreter interpreter, int nodesThreshold, int jvmThreshold, int loopThreshold, boolean log) {
+        this.interpreter = interpreter;
+        this.nodesThreshold = nodesThreshold;
+        this.jvmThreshold = jvmThreshold;
+        this.loopThreshold = loopThreshold;
+        this.log = log;
+    }
+
+    Profile profile(Stmt.Function declaration) {
+        if (declaration.profile == null)
+            declaration.profile = new Profile(declaration);
+        return declaration.profile;
+    }
+
+    Loop loop(Stmt.While statement) {
+        if (statement.loop == null)
+            statement.loop = new Loop(statement);
+        return statement.loop;
+    }
+
+    /**
+     * What's known about one function declaration at runtime, and the fastest body it has been compiled to so far.
+     */
+    class Profile {
+        final Stmt.Function declaration;
+        int calls = 0;
+        int backEdges = 0;
+        /**
+         * The body compiled to nodes, or null while it's still being walked.
+         */
+        StmtNode nodes;
+        /**
+         * The body compiled to a JVM method, or null if it hasn't been yet.
+         */
+        MethodHandle code;
+        /**
+         * Set when the JvmCompiler couldn't fit the function in a class, so it isn't tried again.
+         */
+        private boolean jvmFailed = false;
+
+        private Profile(Stmt.Function declaration) {
+            this.declaration = declaration;
+        }
+
+        /**
+         * Counts a call, compiling the body first if this call makes it hot.
+         */
+        void called() {
+            calls++;
+            if (code == null && !jvmFailed && calls >= jvmThreshold)
+                compileToJvm(calls + " calls");
+            else if (nodes == null && calls >= nodesThreshold)
+                compileToNodes();
+        }
+
+        /**
+         * Counts an iteration of a loop in the body. The running call carries on as it is; the next one gets the
+         * compiled code.
+         */
+        void backEdge() {
+            backEdges++;
+            if (backEdges == loopThreshold && code == null && !jvmFailed)
+                compileToJvm(backEdges + " loop iterations");
+        }
+
+        /**
+         * Hands over code the JvmCompiler made for this function while compiling an enclosing one.
+         */
+        void compiled(MethodHandle code) {
+            if (this.code == null) {
+                this.code = code;
+                log("jvm", "its enclosing function was compiled");
+            }
+        }
+
+        private void compileToNodes() {
+            nodes = new NodeCompiler(interpreter).compile(this);
+            log("nodes", calls + " calls");
+        }
+
+        private void compileToJvm(String reason) {
+            code = new JvmCompiler(interpreter).compile(declaration);
+            if (code == null) {
+                jvmFailed = true;
+                return;
+            }
+            log("jvm", reason);
+        }
+
+        private void log(String tier, String reason) {
+            if (log) {
+                System.err.println("[tiering] " + declaration.name.lexeme + " (line " + declaration.name.line +
+                        ") compiled to " + tier + " after " + reason + ".");
+            }
+        }
+    }
+
+    /**
+     * A while loop the Interpreter is walking. Loops outside of functions never get a faster function body to move
+     * to, so once one has run long enough it's compiled on its own, and the Interpreter hands the rest of the loop,
+     * in whatever Environment it's running in, over to the compiled code.
+     */
+    class Loop {
+        final Stmt.While statement;
+        int backEdges = 0;
+        /**
+         * The loop compiled to a JVM method that runs it to completion, or null if it hasn't been yet.
+         */
+        MethodHandle code;
+        private boolean failed = false;
+
+        private Loop(Stmt.While statement) {
+            this.statement = statement;
+        }
+
+        boolean isCompiled() {
+            return code != null;
+        }
+
+        void backEdge() {
+            backEdges++;
+            if (backEdges != loopThreshold || failed)
+                return;
+
+            code = new JvmCompiler(interpreter).compile(statement);
+            if (code == null) {
+                failed = true;
+                return;
+            }
+
+            if (log)
+                System.err.println("[tiering] while loop compiled to jvm after " + backEdges + " iterations.");
+        }
+
+        /**
+         * Runs the rest of the loop, starting from its condition. Returns what executing the loop statement gives.
+         */
+        Object run(Environment environment) {
+            return JvmRuntime.invoke(code, environment);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The tokens of a script packed into parallel arrays of their types, where they are in the source, and their lines,
+ * instead of one Token object each. The Parser reads it directly and only makes Tokens for the ones the syntax tree
+ * keeps, like names and operators, or that it reports an error at. Lexemes and literals are only read out of the
+ * source when one of those is made.
+ * <p>
+ * Tokens are scanned as the Parser reaches them, a batch at a time, and only the last few dozen are kept, since it
+ * never looks further back than the one before the current one. Scanning and parsing go on in step, however long
+ * the script is.
+ * <p>
+ * A lexeme decides what kind of token it is and what its literal is, so the tokens made for the same lexeme on the
+ * same line are the same Token. A name used several times in a statement is only kept once by the tree.
+ */
+final class TokenStream {
+    private static final TokenType[] TYPES = TokenType.values();
+    /**
+     * How many tokens are kept, a power of two. Token i is at index i modulo this in the arrays.
+     */
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+
+    private final char[] source;
+    private final SymbolTable symbols;
+    private final Scanner scanner;
+    private final byte[] types = new byte[CAPACITY];
+    private final int[] starts = new int[CAPACITY];
+    private final int[] lengths = new int[CAPACITY];
+    private final int[] lines = new int[CAPACITY];
+    /**
+     * How many tokens have been scanned so far.
+     */
+    private int count = 0;
+    /**
+     * The Tokens made for the line the last one was on, by lexeme.
+     */
+    private final Map<String, Token> lineTokens = new IdentityHashMap<>();
+    private int tokensLine = -1;
+
+    TokenStream(char[] source, SymbolTable symbols, Scanner scanner) {
+        this.source = source;
+        this.symbols = symbols;
+        this.scanner = scanner;
+    }
+
+    void add(TokenType type, int start, int length, int line) {
+        int slot = count & MASK;
+        types[slot] = (byte) type.ordinal();
+        starts[slot] = start;
+        lengths[slot] = length;
+        lines[slot] = line;
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Makes sure the token with the given index has been scanned, scanning as far past it as there's room for while
+     * keeping the one before it. The Parser calls this whenever it advances, so reading a token is only an array
+     * access.
+     */
+    void reach(int index) {
+        if (index < count)
+            return;
+
+        int end = index + CAPACITY - 1;
+        while (count < end && !scanner.isDone())
+            scanner.scanNext();
+    }
+
+    private static int slot(int index) {
+        return index & MASK;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[slot(index)]];
+    }
+
+    /**
+     * Returns a Token for the token at the given index. Its lexeme is shared with every other token with the same
+     * text.
+     */
+    Token token(int index) {
+        int slot = slot(index);
+        int line = lines[slot];
+        if (line != tokensLine) {
+            lineTokens.clear();
+            tokensLine = line;
+        }
+
+        String lexeme = symbols.intern(source, starts[slot], lengths[slot]);
+        Token token = lineTokens.get(lexeme);
+        if (token == null) {
+            token = new Token(type(index), lexeme, literal(index), line);
+            lineTokens.put(lexeme, token);
+        }
+        return token;
+    }
+
+    /**
+     * Returns the value of a number or string token, or null for any other kind.
+     */
+    Object literal(int index) {
+        int slot = slot(index);
+        return switch (TYPES[types[slot]]) {
+            case NUMBER -> Double.parseDouble(new String(source, starts[slot], lengths[slot]));
+            // Without the quotes.
+            case STRING -> symbols.intern(source, starts[slot] + 1, lengths[slot] - 2);
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,604 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the bytecode the BytecodeCompiler produces, on an operand stack shared by every call frame.
+ */
+class VM {
+    /**
+     * A compiled function, before it has captured any variables.
+     */
+    static class Function {
+        final String name;
+        final int arity;
+        int upvalueCount = 0;
+        final Chunk chunk = new Chunk();
+
+        Function(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
+
+        @Override
+        public String toString() {
+            if (name == null)
+                return "<script>";
+            return "<fn " + name + ">";
+        }
+    }
+
+    static class Closure {
+        final Function function;
+        final Upvalue[] upvalues;
+
+        Closure(Function function) {
+            this.function = function;
+            this.upvalues = new Upvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    /**
+     * A captured variable. It stays in its stack slot while that's alive, then moves into the upvalue itself.
+     */
+    static class Upvalue {
+        /**
+         * The stack slot of the variable, or -1 once it's been closed over.
+         */
+        int slot;
+        Object closed;
+        /**
+         * The next open upvalue further down the stack.
+         */
+        Upvalue next;
+
+        Upvalue(int slot, Upvalue next) {
+            this.slot = slot;
+            this.next = next;
+        }
+    }
+
+    static class Class {
+        final String name;
+        final Map<String, Closure> methods = new HashMap<>();
+        Closure initializer;
+
+        Class(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "<class " + name + ">";
+        }
+    }
+
+    static class Instance {
+        final Class klass;
+        final Map<String, Object> fields = new HashMap<>();
+
+        Instance(Class klass) {
+            this.klass = klass;
+        }
+
+        @Override
+        public String toString() {
+            return klass.name + " instance";
+        }
+    }
+
+    static class BoundMethod {
+        final Object receiver;
+        final Closure method;
+
+        BoundMethod(Object receiver, Closure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+
+    private static class CallFrame {
+        Closure closure;
+        int ip;
+        /**
+         * Stack index of the frame's slot zero.
+         */
+        int base;
+    }
+
+    /**
+     * An error raised by an instruction. run() adds the line of the instruction before reporting it.
+     */
+    private static class Failure extends RuntimeException {
+        Failure(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * How many calls deep Lox code can go by default. Frames live in arrays on the heap rather than on the Java stack,
+     * so this is only a guard against runaway recursion, and can be raised a long way.
+     */
+    static final int DEFAULT_MAX_FRAMES = 4096;
+
+    private final int maxFrames;
+
+    private final Map<String, Object> globals = new HashMap<>();
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[16];
+    private int frameCount = 0;
+    private Upvalue openUpvalues = null;
+
+    VM(int maxFrames) {
+        this.maxFrames = maxFrames;
+        globals.putAll(Natives.FUNCTIONS);
+    }
+
+    void interpret(Function script) {
+        Closure closure = new Closure(script);
+        push(closure);
+
+        try {
+            call(closure, 0);
+            run();
+        } catch (Failure failure) {
+            // Only call() can fail outside of run(), and not for a script.
+            throw new IllegalStateException(failure);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            resetStack();
+        }
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, 0, sp, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        return stack[--sp];
+    }
+
+    private Object peek(int distance) {
+        return stack[sp - 1 - distance];
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    /**
+     * The dispatch loop. It keeps the stack and stack pointer in locals, so they have to be written back before
+     * calling anything that uses the fields, and reloaded afterwards.
+     */
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        Object[] stack = this.stack;
+        int sp = this.sp;
+        int base = frame.base;
+        int ip = frame.ip;
+
+        try {
+            while (true) {
+                switch (code[ip++]) {
+                    case OpCode.CONSTANT -> {
+                        stack[sp++] = constants[readShort(code, ip)];
+                        ip += 2;
+                    }
+                    case OpCode.NIL -> stack[sp++] = null;
+                    case OpCode.TRUE -> stack[sp++] = true;
+                    case OpCode.FALSE -> stack[sp++] = false;
+                    case OpCode.POP -> stack[--sp] = null;
+
+                    case OpCode.GET_LOCAL -> {
+                        stack[sp] = stack[base + readShort(code, ip)];
+                        sp++;
+                        ip += 2;
+                    }
+                    case OpCode.SET_LOCAL -> {
+                        stack[base + readShort(code, ip)] = stack[sp - 1];
+                        ip += 2;
+                    }
+                    case OpCode.GET_GLOBAL -> {
+                        String name = (String) constants[readShort(code, ip)];
+                        ip += 2;
+                        Object value = globals.get(name);
+                        if (value == null && !globals.containsKey(name))
+                            throw new Failure("Undefined variable '" + name + "'.");
+                        stack[sp++] = value;
+                    }
+                    case OpCode.DEFINE_GLOBAL -> {
+                        globals.put((String) constants[readShort(code, ip)], stack[--sp]);
+                        stack[sp] = null;
+                        ip += 2;
+                    }
+                    case OpCode.SET_GLOBAL -> {
+                        String name = (String) constants[readShort(code, ip)];
+                        ip += 2;
+                        if (!globals.containsKey(name))
+                            throw new Failure("Undefined variable '" + name + "'.");
+                        globals.put(name, stack[sp - 1]);
+                    }
+                    case OpCode.GET_UPVALUE -> {
+                        Upvalue upvalue = frame.closure.upvalues[readShort(code, ip)];
+                        ip += 2;
+                        stack[sp++] = upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed;
+                    }
+                    case OpCode.SET_UPVALUE -> {
+                        Upvalue upvalue = frame.closure.upvalues[readShort(code, ip)];
+                        ip += 2;
+                        if (upvalue.slot >= 0)
+                            stack[upvalue.slot] = stack[sp - 1];
+                        else
+                            upvalue.closed = stack[sp - 1];
+                    }
+                    case OpCode.GET_PROPERTY -> {
+                        String name = (String) constants[readShort(code, ip)];
+                        ip += 2;
+                        if (!(stack[sp - 1] instanceof Instance instance))
+                            throw new Failure("Only instances have properties.");
+
+                        Object value = instance.fields.get(name);
+                        if (value != null || instance.fields.containsKey(name))
+                            stack[sp - 1] = value;
+                        else
+                            stack[sp - 1] = bindMethod(instance.klass, name, instance);
+                    }
+                    case OpCode.SET_PROPERTY -> {
+                        String name = (String) constants[readShort(code, ip)];
+                        ip += 2;
+                        if (!(stack[sp - 2] instanceof Instance instance))
+                            throw new Failure("Only instances have fields.");
+
+                        Object value = stack[--sp];
+                        stack[sp] = null;
+                        instance.fields.put(name, value);
+                        stack[sp - 1] = value;
+                    }
+                    case OpCode.GET_SUPER -> {
+                        String name = (String) constants[readShort(code, ip)];
+                        ip += 2;
+                        Class superclass = (Class) stack[--sp];
+                        stack[sp] = null;
+                        stack[sp - 1] = bindMethod(superclass, name, stack[sp - 1]);
+                    }
+
+                    case OpCode.EQUAL -> {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+                    }
+                    case OpCode.NOT_EQUAL -> {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], b);
+                    }
+                    case OpCode.GREATER -> {
+                        Object b = stack[--sp];
+                        if (!(stack[sp - 1] instanceof Double x && b instanceof Double y))
+                            throw new Failure("Operands must be numbers.");
+                        stack[sp - 1] = x > y;
+                    }
+                    case OpCode.GREATER_EQUAL -> {
+                        Object b = stack[--sp];
+                        if (!(stack[sp - 1] instanceof Double x && b instanceof Double y))
+                            throw new Failure("Operands must be numbers.");
+                        stack[sp - 1] = x >= y;
+                    }
+                    case OpCode.LESS -> {
+                        Object b = stack[--sp];
+                        if (!(stack[sp - 1] instanceof Double x && b instanceof Double y))
+                            throw new Failure("Operands must be numbers.");
+                        stack[sp - 1] = x < y;
+                    }
+                    case OpCode.LESS_EQUAL -> {
+                        Object b = stack[--sp];
+                        if (!(stack[sp - 1] instanceof Double x && b instanceof Double y))
+                            throw new Failure("Operands must be numbers.");
+                        stack[sp - 1] = x <= y;
+                    }
+                    case OpCode.ADD -> {
+                        Object b = stack[--sp];
+                        Object a = stack[sp - 1];
+                        if (a instanceof Double x && b instanceof Double y)
+                            stack[sp - 1] = x + y;
+                        else if (a instanceof String x && b instanceof String y)
+                            stack[sp - 1] = x + y;
+                        else
+                            throw new Failure("Operands must be two numbers or two strings.");
+                    }
+                    case OpCode.SUBTRACT -> {
+                        Object b = stack[--sp];
+                        if (!(stack[sp - 1] instanceof Double x && b instanceof Double y))
+                            throw new Failure("Operands must be numbers.");
+                        stack[sp - 1] = x - y;
+                    }
+                    case OpCode.MULTIPLY -> {
+                        Object b = stack[--sp];
+                        if (!(stack[sp - 1] instanceof Double x && b instanceof Double y))
+                            throw new Failure("Operands must be numbers.");
+                        stack[sp - 1] = x * y;
+                    }
+                    case OpCode.DIVIDE -> {
+                        Object b = stack[--sp];
+                        if (!(stack[sp - 1] instanceof Double x && b instanceof Double y))
+                            throw new Failure("Operands must be numbers.");
+                        stack[sp - 1] = x / y;
+                    }
+                    case OpCode.NOT -> stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    case OpCode.NEGATE -> {
+                        if (!(stack[sp - 1] instanceof Double x))
+                            throw new Failure("Operand must be a number.");
+                        stack[sp - 1] = -x;
+                    }
+
+                    case OpCode.PRINT -> {
+                        System.out.println(Interpreter.stringify(stack[--sp]));
+                        stack[sp] = null;
+                    }
+                    case OpCode.JUMP -> ip += 2 + readShort(code, ip);
+                    case OpCode.JUMP_IF_FALSE -> {
+                        if (Interpreter.isTruthy(stack[sp - 1]))
+                            ip += 2;
+                        else
+                            ip += 2 + readShort(code, ip);
+                    }
+                    case OpCode.LOOP -> ip = ip + 2 - readShort(code, ip);
+
+                    case OpCode.CALL, OpCode.INVOKE, OpCode.SUPER_INVOKE -> {
+                        byte op = code[ip - 1];
+                        String name = null;
+                        if (op != OpCode.CALL) {
+                            name = (String) constants[readShort(code, ip)];
+                            ip += 2;
+                        }
+                        int argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        this.sp = sp;
+                        int callerFrames = frameCount;
+
+                        if (op == OpCode.CALL) {
+                            callValue(stack[sp - 1 - argCount], argCount);
+                        } else if (op == OpCode.INVOKE) {
+                            invoke(name, argCount);
+                        } else {
+                            Class superclass = (Class) stack[--this.sp];
+                            stack[this.sp] = null;
+                            invokeFromClass(superclass, name, argCount);
+                        }
+
+                        // A call straight before a return is in tail position, so the callee can take over the
+                        // caller's frame.
+                        if (frameCount > callerFrames && code[ip] == OpCode.RETURN)
+                            replaceCaller();
+
+                        stack = this.stack;
+                        sp = this.sp;
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        base = frame.base;
+                        ip = frame.ip;
+                    }
+                    case OpCode.CLOSURE -> {
+                        Function function = (Function) constants[readShort(code, ip)];
+                        ip += 2;
+                        Closure closure = new Closure(function);
+                        for (int i = 0; i < closure.upvalues.length; i++) {
+                            boolean isLocal = code[ip] == 1;
+                            int index = readShort(code, ip + 1);
+                            ip += 3;
+                            if (isLocal)
+                                closure.upvalues[i] = captureUpvalue(base + index);
+                            else
+                                closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                        stack[sp++] = closure;
+                    }
+                    case OpCode.CLOSE_UPVALUE -> {
+                        closeUpvalues(sp - 1);
+                        stack[--sp] = null;
+                    }
+                    case OpCode.RETURN -> {
+                        Object result = stack[--sp];
+                        closeUpvalues(base);
+                        frameCount--;
+
+                        Arrays.fill(stack, base, sp, null);
+                        sp = base;
+                        if (frameCount == 0) {
+                            this.sp = sp;
+                            return;
+                        }
+
+                        stack[sp++] = result;
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        base = frame.base;
+                        ip = frame.ip;
+                    }
+
+                    case OpCode.CLASS -> {
+                        stack[sp++] = new Class((String) constants[readShort(code, ip)]);
+                        ip += 2;
+                    }
+                    case OpCode.INHERIT -> {
+                        if (!(stack[sp - 2] instanceof Class superclass))
+                            throw new Failure("Superclass must be a class.");
+
+                        // Classes can't change after they're declared, so inherited methods can be copied down.
+                        Class subclass = (Class) stack[--sp];
+                        stack[sp] = null;
+                        subclass.methods.putAll(superclass.methods);
+                        subclass.initializer = superclass.initializer;
+                    }
+                    case OpCode.METHOD -> {
+                        String name = (String) constants[readShort(code, ip)];
+                        ip += 2;
+                        Closure method = (Closure) stack[--sp];
+                        stack[sp] = null;
+                        Class klass = (Class) stack[sp - 1];
+                        klass.methods.put(name, method);
+                        if (name.equals("init"))
+                            klass.initializer = method;
+                    }
+
+                    default -> throw new IllegalStateException("Unknown opcode " + code[ip - 1] + ".");
+                }
+            }
+        } catch (Failure failure) {
+            this.sp = sp;
+            throw new RuntimeError(frame.closure.function.chunk.getLine(ip - 1), failure.getMessage());
+        }
+    }
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof Closure closure) {
+            call(closure, argCount);
+        } else if (callee instanceof BoundMethod bound) {
+            stack[sp - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+        } else if (callee instanceof Class klass) {
+            stack[sp - argCount - 1] = new Instance(klass);
+            if (klass.initializer != null)
+                call(klass.initializer, argCount);
+            else if (argCount != 0)
+                throw new Failure("Expected 0 arguments, but got " + argCount + ".");
+        } else if (callee instanceof LoxCallable function) {
+            if (argCount != function.arity())
+                throw new Failure("Expected " + function.arity() + " arguments, but got " + argCount + ".");
+
+            // Natives don't need an Interpreter.
+            Object result = function.call(null, Arrays.copyOfRange(stack, sp - argCount, sp));
+
+            Arrays.fill(stack, sp - argCount - 1, sp, null);
+            sp -= argCount + 1;
+            push(result);
+        } else {
+            throw new Failure("Can only call functions and classes.");
+        }
+    }
+
+    private void invoke(String name, int argCount) {
+        if (!(peek(argCount) instanceof Instance instance))
+            throw new Failure("Only instances have properties.");
+
+        // A field holding a function shadows the method.
+        Object field = instance.fields.get(name);
+        if (field != null || instance.fields.containsKey(name)) {
+            stack[sp - argCount - 1] = field;
+            callValue(field, argCount);
+            return;
+        }
+
+        invokeFromClass(instance.klass, name, argCount);
+    }
+
+    private void invokeFromClass(Class klass, String name, int argCount) {
+        Closure method = klass.methods.get(name);
+        if (method == null)
+            throw new Failure("Undefined property '" + name + "'.");
+
+        call(method, argCount);
+    }
+
+    private void call(Closure closure, int argCount) {
+        Function function = closure.function;
+        if (argCount != function.arity)
+            throw new Failure("Expected " + function.arity + " arguments, but got " + argCount + ".");
+
+        if (frameCount == maxFrames)
+            throw new Failure("Stack overflow.");
+
+        int base = sp - argCount - 1;
+        if (base + function.chunk.maxStack > stack.length)
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, base + function.chunk.maxStack));
+
+        if (frameCount == frames.length)
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        if (frames[frameCount] == null)
+            frames[frameCount] = new CallFrame();
+
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+    }
+
+    /**
+     * Moves the frame just pushed down over the one that called it, which has nothing left to do but return what
+     * the new one returns. Tail-recursive code runs in a constant number of frames this way.
+     */
+    private void replaceCaller() {
+        CallFrame callee = frames[frameCount - 1];
+        CallFrame caller = frames[frameCount - 2];
+        closeUpvalues(caller.base);
+
+        int size = sp - callee.base;
+        System.arraycopy(stack, callee.base, stack, caller.base, size);
+        Arrays.fill(stack, caller.base + size, sp, null);
+        sp = caller.base + size;
+
+        callee.base = caller.base;
+        frames[frameCount - 2] = callee;
+        frames[frameCount - 1] = caller;
+        frameCount--;
+    }
+
+    private BoundMethod bindMethod(Class klass, String name, Object receiver) {
+        Closure method = klass.methods.get(name);
+        if (method == null)
+            throw new Failure("Undefined property '" + name + "'.");
+
+        return new BoundMethod(receiver, method);
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot)
+            return upvalue;
+
+        Upvalue created = new Upvalue(slot, upvalue);
+        if (previous == null)
+            openUpvalues = created;
+        else
+            previous.next = created;
+        return created;
+    }
+
+    /**
+     * Moves every variable from the given slot up off the stack and into the upvalues that captured it.
+     */
+    private void closeUpvalues(int lastSlot) {
+        while (openUpvalues != null && openUpvalues.slot >= lastSlot) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+}